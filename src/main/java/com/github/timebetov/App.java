@@ -2,9 +2,18 @@ package com.github.timebetov;
 
 import com.github.timebetov.helper.AppConstant;
 import com.github.timebetov.helper.AppRunner;
+import com.github.timebetov.helper.BatchRunner;
 import com.github.timebetov.service.TransactionService;
 import com.github.timebetov.service.implementation.InFilesTransactionService;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 
 public class App {
@@ -12,27 +21,69 @@ public class App {
     public static void main(String[] args) {
 
         String username = getUsername(args);
-        TransactionService service = new InFilesTransactionService(username);
-        new AppRunner(service).start();
-    }
+        String batchSource = getArgument(args, "-B");
+        String restoreSource = getArgument(args, "-R");
 
-    private static String getUsername(String[] args) {
+        // Restore: the ledger is replaced by the latest backup before it is opened
+        if (restoreSource != null) {
+            InFilesTransactionService.restore(Path.of(restoreSource), InFilesTransactionService.DATA_DIR, username);
+            // Not on stdout, where batch answers go
+            System.err.println("Restored " + username + " from " + restoreSource);
+        }
 
-        String username = null;
-        for (int i = 0; i < args.length; i++) {
-            if ("-U".equals(args[i]) && i + 1 < args.length) {
-                username = args[i + 1];
-                break;
+        // Batch mode: commands from a file or stdin ('-'), answers are machine-readable lines on stdout.
+        // Writes are synchronous, so a change answered OK is already written to the files
+        if (batchSource != null) {
+            int status;
+            try (TransactionService service = new InFilesTransactionService(username, false, false)) {
+                status = runBatch(service, batchSource);
             }
+            System.exit(status);
         }
 
+        System.out.println(LocalDateTime.now().format(AppConstant.TIME_FORMAT) + " INFO: Logged in as: " + username);
+        System.out.println("‒".repeat(50));
+
+        // Ledger is read in the background so the prompt shows up right away,
+        // changes are written behind the prompt and drained on EXIT
+        try (TransactionService service = new InFilesTransactionService(username, true, true)) {
+            new AppRunner(service).start();
+        }
+    }
+
+    private static int runBatch(TransactionService service, String source) {
+
+        try (
+                BufferedReader in = "-".equals(source)
+                        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                        : Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8);
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+        ) {
+            int errors = new BatchRunner(service, out).run(in);
+            return errors == 0 ? 0 : BatchRunner.FAILED_COMMANDS;
+        } catch (IOException ex) {
+            System.err.println("Batch failed: " + ex.getMessage());
+            return 1;
+        }
+    }
+
+    private static String getUsername(String[] args) {
+
+        String username = getArgument(args, "-U");
         if (username == null) {
             System.err.println("flag -U and username not provided");
             System.exit(1);
         }
-
-        System.out.println(LocalDateTime.now().format(AppConstant.TIME_FORMAT) + " INFO: Logged in as: " + username);
-        System.out.println("‒".repeat(50));
         return username;
     }
+
+    private static String getArgument(String[] args, String flag) {
+
+        for (int i = 0; i < args.length; i++) {
+            if (flag.equals(args[i]) && i + 1 < args.length) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
 }
@@ -8,4 +8,16 @@ public class AppConstant {
 
     public static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     public static final String DISPLAY_FORMAT = "| %-36s | %-7s | %10s | %-13s | %-20s | %20s |";
+
+    // History recorded longer ago than this goes to compressed storage when ARCHIVE is given no age
+    public static final int ARCHIVE_AFTER_DAYS = 365;
+
+    // Where BACKUP copies the ledger when given no directory
+    public static final String BACKUP_DIR = "backup";
+
+    // Answer to ARCHIVE and BACKUP when the ledger lives only in memory
+    public static final String NOT_IN_FILES = "This ledger is not stored in files, there is nothing to archive or back up";
+
+    // Changes that bring a category to this share of its monthly budget are warned about
+    public static final int BUDGET_WARNING_PERCENT = 80;
 }
@@ -1,16 +1,23 @@
 package com.github.timebetov.helper;
 
+import com.github.timebetov.models.Budget;
 import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.LedgerFiles;
 import com.github.timebetov.service.TransactionService;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 
 import static com.github.timebetov.helper.AppUtilities.showResponse;
 import static com.github.timebetov.helper.AppUtilities.getInput;
@@ -19,6 +26,7 @@ public class AppRunner {
 
     private final TransactionService service;
     private final Scanner scanner = new Scanner(System.in);
+    private final TableRenderer renderer = new TableRenderer(System.out);
     private final List<String> menuItems = List.of(
             "ADD | Add a new transaction",
             "SHOW | Show all transactions",
@@ -26,8 +34,18 @@ public class AppRunner {
             "UPDATE | Update transaction by ID",
             "DELETE | Delete transaction by ID",
             "BALANCE | View current Balance",
+            "BALANCE-AT | View balance at a past time",
+            "FLOW | View net flow between two times",
             "SUMMARY | Get full summary report",
+            "BUDGET | Set monthly spending limit of a category",
+            "BUDGETS | Show how much of each budget is used",
             "TRASH | Get all deleted transactions",
+            "UNDO | Undo last change made since the app started",
+            "REDO | Redo undone change",
+            "ASOF | Show transactions as of a past time",
+            "SEARCH | Find transactions by words in description",
+            "ARCHIVE | Compress old history to save disk",
+            "BACKUP | Copy new changes to a backup directory",
             "CLEAR-A | Clear all transactions",
             "CLEAR-T | Clear all trash",
             "EXIT | Close application"
@@ -56,8 +74,18 @@ public class AppRunner {
             case "UPDATE" -> updateTransaction();
             case "DELETE" -> deleteTransaction();
             case "BALANCE" -> getBalance();
+            case "BALANCE-AT" -> getBalanceAt();
+            case "FLOW" -> getNetFlow();
             case "SUMMARY" -> showTransactionSummary();
+            case "BUDGET" -> setBudget();
+            case "BUDGETS" -> showBudgets();
             case "TRASH" -> showTransactions(true);
+            case "UNDO" -> undo();
+            case "REDO" -> redo();
+            case "ASOF" -> showTransactionsAsOf();
+            case "SEARCH" -> searchTransactions();
+            case "ARCHIVE" -> archive();
+            case "BACKUP" -> backup();
             case "CLEAR-A" -> clear(true);
             case "CLEAR-T" -> clear(false);
             case "MENU" -> showMenu();
@@ -94,6 +122,7 @@ public class AppRunner {
             Transaction transaction = getTransactionDetails(false);
             service.add(transaction);
             showResponse("Transaction with ID: " + transaction.getId() + " added successfully");
+            alertBudget(transaction);
         } catch (Exception e) {
             showResponse("Transaction NOT ADDED Because of: " + e.getMessage());
         }
@@ -103,7 +132,14 @@ public class AppRunner {
     private void showTransactions(boolean isDeleted) {
 
         final List<Transaction> transactions = service.getTransactions(isDeleted);
-        displayTransactions(transactions);
+        if (isDeleted || transactions.isEmpty()) {
+            displayTransactions(transactions);
+            return;
+        }
+
+        // Ledger comes with the balance after each transaction, listed in the time order the balances run in
+        List<Transaction> ordered = transactions.stream().sorted().toList();
+        renderer.renderTransactions(ordered, service.getRunningBalances(ordered));
     }
 
     private void getTransaction() {
@@ -129,8 +165,9 @@ public class AppRunner {
             Transaction transaction = getTransactionDetails(true);
             service.update(transactionId, transaction);
             showResponse("Transaction updated successfully");
-        } catch (IllegalArgumentException ex) {
-            showResponse("Transaction not updated because of: " + ex.getMessage());
+            alertBudget(service.getById(transactionId));
+        } catch (RuntimeException ex) {
+            showResponse("Transaction not updated because of: " + reason(ex));
         }
     }
 
@@ -143,8 +180,8 @@ public class AppRunner {
             service.getById(transactionId);
             service.delete(transactionId);
             showResponse("Transaction deleted successfully");
-        } catch (IllegalArgumentException ex) {
-            showResponse("Transaction not deleted because of: " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            showResponse("Transaction not deleted because of: " + reason(ex));
         }
     }
 
@@ -160,21 +197,187 @@ public class AppRunner {
         System.out.println("‒".repeat(61));
     }
 
+    private void setBudget() {
+
+        try {
+            var category = TransactionValidator.isValidCategory(getInput(scanner,
+                    "Please provide category of the budget " + Arrays.toString(Transaction.Category.values()), false));
+            var limit = TransactionValidator.isValidAmount(getInput(scanner, "Please provide the most to spend a month, blank removes the budget", true));
+            service.setBudget(category, limit);
+            showResponse(limit != null ? category + " budget set to " + money(limit) + " a month" : category + " budget removed");
+        } catch (RuntimeException ex) {
+            showResponse(reason(ex));
+        }
+    }
+
+    private void showBudgets() {
+
+        try {
+            YearMonth month = TransactionValidator.isValidMonth(getInput(scanner, "Please provide month in format yyyy-MM (this month by default)", true));
+            if (month == null) month = YearMonth.now();
+            List<Budget> budgets = service.getBudgets(month);
+            if (budgets.isEmpty()) {
+                showResponse("There are no budgets yet");
+                return;
+            }
+
+            System.out.println("\n💰 Budgets for " + month);
+            System.out.println("‒".repeat(61));
+            String format = "| %-13s | %12s | %12s | %11s |%n";
+            System.out.printf(format, "Category", "Limit", "Spent", "Used");
+            System.out.println("‒".repeat(61));
+            for (var budget : budgets) {
+                System.out.printf(format, budget.category(), money(budget.limit()), money(budget.spent()),
+                        (budget.isExceeded() ? "⚠ " : "") + budget.percentUsed() + "%");
+            }
+            System.out.println("‒".repeat(61));
+        } catch (RuntimeException ex) {
+            showResponse(reason(ex));
+        }
+    }
+
+    // Only the budget the changed expense counts in can have moved, so one lookup is enough
+    private void alertBudget(Transaction transaction) {
+
+        if (transaction.getType() != Transaction.TransactionType.EXPENSE) return;
+        YearMonth month = YearMonth.from(transaction.getTransactionTime().atZone(ZoneId.systemDefault()));
+        Budget budget = service.getBudget(transaction.getCategory(), month);
+        if (budget == null) return;
+
+        String usage = money(budget.spent()) + " of " + money(budget.limit()) + " (" + budget.percentUsed() + "%)";
+        if (budget.isExceeded())
+            showResponse("⚠ " + budget.category() + " budget for " + month + " exceeded: " + usage);
+        else if (budget.percentUsed() >= AppConstant.BUDGET_WARNING_PERCENT)
+            showResponse(budget.category() + " budget for " + month + " almost used up: " + usage);
+    }
+
     private void getBalance() {
 
         BigDecimal balance = service.getBalance(service.getTransactions(false));
-        String sign = balance.signum() >= 0 ? "" : "-";
-        showResponse("BALANCE: " + sign + "$" + balance.abs());
+        showResponse("BALANCE: " + money(balance));
+    }
+
+    private void getBalanceAt() {
+
+        try {
+            Instant time = TransactionValidator.isValidTime(getInput(scanner, "Please provide time to show the balance at, in format: " + exampleTime(), false));
+            showResponse("BALANCE AT " + LocalDateTime.ofInstant(time, ZoneId.systemDefault()).format(AppConstant.TIME_FORMAT)
+                    + ": " + money(service.getBalanceAt(time)));
+        } catch (RuntimeException ex) {
+            showResponse(reason(ex));
+        }
+    }
+
+    private void getNetFlow() {
+
+        try {
+            Instant from = TransactionValidator.isValidTime(getInput(scanner, "Please provide start time, in format: " + exampleTime(), false));
+            Instant to = TransactionValidator.isValidTime(getInput(scanner, "Please provide end time, in format: " + exampleTime(), false));
+            if (to.isBefore(from)) throw new IllegalArgumentException("End time is before start time");
+            showResponse("NET FLOW: " + money(service.getNetFlow(from, to)));
+        } catch (RuntimeException ex) {
+            showResponse(reason(ex));
+        }
+    }
+
+    private static String exampleTime() {
+        return LocalDateTime.ofInstant(Instant.now(), ZoneId.systemDefault()).format(AppConstant.TIME_FORMAT);
+    }
+
+    private static String money(BigDecimal amount) {
+        return (amount.signum() >= 0 ? "" : "-") + "$" + amount.abs();
+    }
+
+    private void undo() {
+
+        try {
+            showResponse(service.undo() ? "Last change undone" : "Nothing to undo");
+        } catch (RuntimeException ex) {
+            showResponse("Change NOT UNDONE Because of: " + reason(ex));
+        }
+    }
+
+    private void redo() {
+
+        try {
+            showResponse(service.redo() ? "Change redone" : "Nothing to redo");
+        } catch (RuntimeException ex) {
+            showResponse("Change NOT REDONE Because of: " + reason(ex));
+        }
+    }
+
+    private void showTransactionsAsOf() {
+
+        String time = getInput(scanner, "Please provide time to show the ledger at, in format: " +
+                LocalDateTime.ofInstant(Instant.now(), ZoneId.systemDefault()).format(AppConstant.TIME_FORMAT), false);
+        try {
+            displayTransactions(service.getTransactionsAsOf(TransactionValidator.isValidTime(time)));
+        } catch (RuntimeException ex) {
+            showResponse(reason(ex));
+        }
+    }
+
+    private void searchTransactions() {
+
+        String query = getInput(scanner, "Please provide words to search for, end a word with '*' to match its beginning", false);
+        try {
+            displayTransactions(service.search(query));
+        } catch (RuntimeException ex) {
+            showResponse(reason(ex));
+        }
+    }
+
+    private void archive() {
+
+        if (!(service instanceof LedgerFiles files)) {
+            showResponse(AppConstant.NOT_IN_FILES);
+            return;
+        }
+        try {
+            Integer days = TransactionValidator.isValidDays(getInput(scanner,
+                    "Please provide how many days of recent history stay uncompressed (" + AppConstant.ARCHIVE_AFTER_DAYS + " by default)", true));
+            int moved = files.archive(Instant.now().minus(Duration.ofDays(days != null ? days : AppConstant.ARCHIVE_AFTER_DAYS)));
+            showResponse(moved > 0 ? moved + " records archived" : "Nothing old enough to archive");
+        } catch (IllegalArgumentException ex) {
+            showResponse(ex.getMessage());
+        } catch (RuntimeException ex) {
+            showResponse("History NOT ARCHIVED Because of: " + reason(ex));
+        }
+    }
+
+    private void backup() {
+
+        if (!(service instanceof LedgerFiles files)) {
+            showResponse(AppConstant.NOT_IN_FILES);
+            return;
+        }
+        String dir = getInput(scanner, "Please provide backup directory (" + AppConstant.BACKUP_DIR + " by default)", true);
+        Path target = Path.of(dir.isBlank() ? AppConstant.BACKUP_DIR : dir);
+        try {
+            long copied = files.backup(target).join();
+            showResponse("Backed up to " + target.toAbsolutePath() + ", " + copied + " new bytes copied");
+        } catch (RuntimeException ex) {
+            showResponse("Ledger NOT BACKED UP Because of: " + reason(ex));
+        }
     }
 
     private void clear(boolean all) {
 
-        service.clear(all);
+        try {
+            service.clear(all);
+        } catch (RuntimeException ex) {
+            showResponse("Transactions NOT CLEARED Because of: " + reason(ex));
+        }
     }
 
-    private void displayTransactions(List<Transaction> transactions) {
+    // Work done on another thread fails wrapped in a CompletionException, its cause tells what went wrong
+    private static String reason(RuntimeException ex) {
 
-        final String displayFormat = "| %-5s " + AppConstant.DISPLAY_FORMAT;
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        return Objects.requireNonNullElse(cause.getMessage(), cause.toString());
+    }
+
+    private void displayTransactions(List<Transaction> transactions) {
 
         // Case: If there are no transactions
         if (transactions.isEmpty()) {
@@ -182,17 +385,7 @@ public class AppRunner {
             return;
         }
 
-        System.out.println("‒".repeat(135));
-        System.out.printf((displayFormat) + "%n", "#", "ID", "TYPE", "AMOUNT", "CATEGORY", "DESCRIPTION", "DATE");
-        System.out.println("‒".repeat(135));
-        for (int i = 0; i < transactions.size(); i++) {
-            var transaction = transactions.get(i);
-            LocalDateTime transactionTime = LocalDateTime.ofInstant(transaction.getTransactionTime(), ZoneId.systemDefault());
-            System.out.printf((displayFormat) + "%n", i+1, transaction.getId(), transaction.getType(),
-                    transaction.getAmount(), transaction.getCategory(), transaction.getDescription(),
-                    transactionTime.format(AppConstant.TIME_FORMAT));
-        }
-        System.out.println("‒".repeat(135));
+        renderer.renderTransactions(transactions);
     }
 
     private void showMenu() {
@@ -9,11 +9,11 @@ public class AppUtilities {
     protected static String getInput(Scanner scanner, String promptMsg, boolean allowBlank) {
 
         final String postFixMsgIfAllowed = " (or leave the field blank)";
-        System.out.print(promptMsg + (allowBlank ? postFixMsgIfAllowed : "") + " >>> ");
-        String input = scanner.nextLine().trim();
-        if (!allowBlank && input.isBlank()) {
-            input = getInput(scanner, promptMsg, false);
-        }
+        String input;
+        do {
+            System.out.print(promptMsg + (allowBlank ? postFixMsgIfAllowed : "") + " >>> ");
+            input = scanner.nextLine().trim();
+        } while (!allowBlank && input.isBlank());
         return input;
     }
 
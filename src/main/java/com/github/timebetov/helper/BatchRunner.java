@@ -0,0 +1,354 @@
+package com.github.timebetov.helper;
+
+import com.github.timebetov.models.Budget;
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.LedgerFiles;
+import com.github.timebetov.service.TransactionService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes commands read line by line, made for scripts and pipelines instead of the interactive prompt.
+ * <p>
+ * One command per line, fields are separated by spaces and text with spaces goes in double quotes:
+ * <pre>
+ * ADD EXPENSE FOOD 12.50 "lunch" 2026-10-01 12:00
+ * UPDATE &lt;id&gt; - - 13.00 - -        ('-' keeps the current value)
+ * GET &lt;id&gt;
+ * DELETE &lt;id&gt;
+ * ASOF 2026-10-01 12:00
+ * BALANCE 2026-10-01 12:00          (balance at the time, current balance without it)
+ * FLOW 2026-10-01 00:00 2026-10-31 23:59
+ * SEARCH uber taxi*               (all words must match, '*' matches the beginning of a word)
+ * ARCHIVE 365                     (compresses history recorded more than that many days ago, 365 without it)
+ * BACKUP backup                   (copies what changed since the last backup to the directory)
+ * BUDGET FOOD 500.00              (most the category spends a month, without an amount the budget is removed)
+ * BUDGETS 2026-10                 (limit, spent and percent used of each budget, this month without it)
+ * SHOW | TRASH | BALANCE | SUMMARY | UNDO | REDO | CLEAR-A | CLEAR-T
+ * </pre>
+ * UNDO reverts only changes made since the service was opened, the steps are not kept with the ledger.
+ * Blank lines and lines starting with '#' are skipped. Every answer is a tab separated line:
+ * status ({@code OK}, {@code ERROR} or {@code ROW} for listed items), line number, command and the result fields.
+ * {@code OK} means the service took the change, a service writing behind has it on the disk only once flushed.
+ */
+public class BatchRunner {
+
+    // Consecutive ADD commands are handed to the service together, up to this many at once
+    private static final int GROUP_SIZE = 4096;
+
+    // Exit status of a batch with failed commands, a failure to read or write the batch itself is 1
+    public static final int FAILED_COMMANDS = 2;
+
+    private final TransactionService service;
+    private final Writer out;
+    private final TransactionFormatter formatter = new TransactionFormatter();
+    private final StringBuilder timeText = new StringBuilder(20);
+
+    private final List<Transaction> pendingAdds = new ArrayList<>(GROUP_SIZE);
+    private final List<Integer> pendingLines = new ArrayList<>(GROUP_SIZE);
+    private int errors;
+
+    public BatchRunner(TransactionService service, Writer out) {
+        this.service = service;
+        this.out = out;
+    }
+
+    /**
+     * Runs all commands from the reader.
+     *
+     * @return number of commands that failed
+     */
+    public int run(BufferedReader in) throws IOException {
+
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            execute(lineNumber, line);
+        }
+        flushAdds();
+        out.flush();
+        return errors;
+    }
+
+    private void execute(int lineNumber, String line) throws IOException {
+
+        List<String> args;
+        try {
+            args = tokenize(line);
+        } catch (IllegalArgumentException ex) {
+            flushAdds();
+            error(lineNumber, "-", ex.getMessage());
+            return;
+        }
+
+        String command = args.get(0).toUpperCase();
+
+        // Anything else may read what the queued ADDs write, so they go first
+        if (!command.equals("ADD")) flushAdds();
+
+        try {
+            switch (command) {
+                case "ADD" -> queueAdd(lineNumber, args);
+                case "GET" -> {
+                    expectArgs(args, 2);
+                    writeTransaction("OK", lineNumber, command, service.getById(args.get(1)));
+                }
+                case "UPDATE" -> {
+                    if (args.size() < 7) throw new IllegalArgumentException("Expected: UPDATE <id> <type> <category> <amount> <description> <time>");
+                    service.update(args.get(1), parseTransaction(args, 2, true));
+                    write("OK", lineNumber, command, args.get(1));
+                }
+                case "DELETE" -> {
+                    expectArgs(args, 2);
+                    service.delete(args.get(1));
+                    write("OK", lineNumber, command, args.get(1));
+                }
+                case "SHOW" -> {
+                    // Rows end with the balance after the transaction, in the time order the balances run in
+                    List<Transaction> transactions = service.getTransactions(false).stream().sorted().toList();
+                    List<BigDecimal> balances = service.getRunningBalances(transactions);
+                    for (int i = 0; i < transactions.size(); i++) {
+                        writeTransaction("ROW", lineNumber, command, transactions.get(i), balances.get(i).toPlainString());
+                    }
+                    write("OK", lineNumber, command, String.valueOf(transactions.size()));
+                }
+                case "TRASH" -> {
+                    List<Transaction> transactions = service.getTransactions(true);
+                    for (var transaction : transactions) {
+                        writeTransaction("ROW", lineNumber, command, transaction);
+                    }
+                    write("OK", lineNumber, command, String.valueOf(transactions.size()));
+                }
+                case "ASOF" -> {
+                    if (args.size() < 2) throw new IllegalArgumentException("Expected: ASOF <time>");
+                    var asOf = TransactionValidator.isValidTime(String.join(" ", args.subList(1, args.size())));
+                    List<Transaction> transactions = service.getTransactionsAsOf(asOf);
+                    for (var transaction : transactions) {
+                        writeTransaction("ROW", lineNumber, command, transaction);
+                    }
+                    write("OK", lineNumber, command, String.valueOf(transactions.size()));
+                }
+                case "SEARCH" -> {
+                    if (args.size() < 2) throw new IllegalArgumentException("Expected: SEARCH <words>");
+                    List<Transaction> transactions = service.search(String.join(" ", args.subList(1, args.size())));
+                    for (var transaction : transactions) {
+                        writeTransaction("ROW", lineNumber, command, transaction);
+                    }
+                    write("OK", lineNumber, command, String.valueOf(transactions.size()));
+                }
+                case "ARCHIVE" -> {
+                    int days = args.size() > 1 ? TransactionValidator.isValidDays(args.get(1)) : AppConstant.ARCHIVE_AFTER_DAYS;
+                    write("OK", lineNumber, command, String.valueOf(ledgerFiles().archive(Instant.now().minus(Duration.ofDays(days)))));
+                }
+                case "BACKUP" -> {
+                    Path dir = Path.of(args.size() > 1 ? args.get(1) : AppConstant.BACKUP_DIR);
+                    write("OK", lineNumber, command, String.valueOf(ledgerFiles().backup(dir).join()));
+                }
+                case "BUDGET" -> {
+                    if (args.size() < 2 || args.size() > 3) throw new IllegalArgumentException("Expected: BUDGET <category> [amount]");
+                    var category = TransactionValidator.isValidCategory(args.get(1));
+                    service.setBudget(category, args.size() > 2 ? TransactionValidator.isValidAmount(args.get(2)) : null);
+                    write("OK", lineNumber, command, category.name());
+                }
+                case "BUDGETS" -> {
+                    YearMonth month = args.size() > 1 ? TransactionValidator.isValidMonth(args.get(1)) : YearMonth.now();
+                    List<Budget> budgets = service.getBudgets(month);
+                    for (var budget : budgets) {
+                        write("ROW", lineNumber, command, budget.category().name(), budget.limit().toPlainString(),
+                                budget.spent().toPlainString(), String.valueOf(budget.percentUsed()));
+                    }
+                    write("OK", lineNumber, command, String.valueOf(budgets.size()));
+                }
+                case "UNDO" -> write("OK", lineNumber, command, service.undo() ? "done" : "nothing to undo");
+                case "REDO" -> write("OK", lineNumber, command, service.redo() ? "done" : "nothing to redo");
+                case "BALANCE" -> write("OK", lineNumber, command, (args.size() > 1
+                        ? service.getBalanceAt(TransactionValidator.isValidTime(String.join(" ", args.subList(1, args.size()))))
+                        : service.getBalance(service.getTransactions(false))).toPlainString());
+                case "FLOW" -> {
+                    if (args.size() != 5) throw new IllegalArgumentException("Expected: FLOW <from date> <from time> <to date> <to time>");
+                    write("OK", lineNumber, command, service.getNetFlow(
+                            TransactionValidator.isValidTime(args.get(1) + " " + args.get(2)),
+                            TransactionValidator.isValidTime(args.get(3) + " " + args.get(4))).toPlainString());
+                }
+                case "SUMMARY" -> {
+                    Map<String, String> summary = service.getSummary(service.getTransactions(false));
+                    for (var entry : summary.entrySet()) {
+                        write("ROW", lineNumber, command, entry.getKey(), entry.getValue());
+                    }
+                    write("OK", lineNumber, command, String.valueOf(summary.size()));
+                }
+                case "CLEAR-A", "CLEAR-T" -> {
+                    service.clear(command.equals("CLEAR-A"));
+                    write("OK", lineNumber, command);
+                }
+                default -> throw new IllegalArgumentException("Unknown command: " + args.get(0));
+            }
+        } catch (RuntimeException ex) {
+            // Answers keep the input order, so ADDs queued before this one are reported first
+            flushAdds();
+            error(lineNumber, command, ex.getMessage());
+        }
+    }
+
+    private void queueAdd(int lineNumber, List<String> args) throws IOException {
+
+        if (args.size() < 6) throw new IllegalArgumentException("Expected: ADD <type> <category> <amount> <description> <time>");
+        pendingAdds.add(parseTransaction(args, 1, false));
+        pendingLines.add(lineNumber);
+        if (pendingAdds.size() >= GROUP_SIZE) flushAdds();
+    }
+
+    private void flushAdds() throws IOException {
+
+        if (pendingAdds.isEmpty()) return;
+        try {
+            service.addAll(pendingAdds);
+            for (int i = 0; i < pendingAdds.size(); i++) {
+                write("OK", pendingLines.get(i), "ADD", pendingAdds.get(i).getId().toString());
+            }
+        } catch (RuntimeException groupFailure) {
+            // Group is rejected as a whole, adding one by one tells which commands failed
+            for (int i = 0; i < pendingAdds.size(); i++) {
+                try {
+                    service.add(pendingAdds.get(i));
+                    write("OK", pendingLines.get(i), "ADD", pendingAdds.get(i).getId().toString());
+                } catch (RuntimeException ex) {
+                    error(pendingLines.get(i), "ADD", ex.getMessage());
+                }
+            }
+        }
+        pendingAdds.clear();
+        pendingLines.clear();
+    }
+
+    // Fields start at 'from': type, category, amount, description and the time which may take two tokens
+    private Transaction parseTransaction(List<String> args, int from, boolean allowKeep) {
+
+        String type = field(args.get(from), allowKeep);
+        String category = field(args.get(from + 1), allowKeep);
+        String amount = field(args.get(from + 2), allowKeep);
+        String description = field(args.get(from + 3), allowKeep);
+        String time = field(String.join(" ", args.subList(from + 4, args.size())), allowKeep);
+
+        if (!allowKeep && (type.isBlank() || category.isBlank() || amount.isBlank() || description.isBlank() || time.isBlank()))
+            throw new IllegalArgumentException("All fields are required");
+
+        return new Transaction(
+                TransactionValidator.isValidType(type),
+                TransactionValidator.isValidCategory(category),
+                TransactionValidator.isValidAmount(amount),
+                description,
+                TransactionValidator.isValidTime(time));
+    }
+
+    private static String field(String value, boolean allowKeep) {
+        return allowKeep && value.equals("-") ? null : value;
+    }
+
+    private static void expectArgs(List<String> args, int count) {
+
+        if (args.size() != count)
+            throw new IllegalArgumentException("Expected " + (count - 1) + " argument(s) for " + args.get(0));
+    }
+
+    private LedgerFiles ledgerFiles() {
+
+        if (service instanceof LedgerFiles files) return files;
+        throw new IllegalArgumentException(AppConstant.NOT_IN_FILES);
+    }
+
+    /**
+     * Splits a command line on spaces, keeping double-quoted text together. Inside quotes a backslash
+     * escapes the next character.
+     */
+    static List<String> tokenize(String line) {
+
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean hasToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < line.length()) current.append(line.charAt(++i));
+                else if (c == '"') quoted = false;
+                else current.append(c);
+            } else if (c == '"') {
+                quoted = true;
+                hasToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (hasToken) tokens.add(current.toString());
+                current.setLength(0);
+                hasToken = false;
+            } else {
+                current.append(c);
+                hasToken = true;
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Unclosed quote");
+        if (hasToken) tokens.add(current.toString());
+        return tokens;
+    }
+
+    private void writeTransaction(String status, int lineNumber, String command, Transaction transaction, String... extra) throws IOException {
+
+        timeText.setLength(0);
+        String[] fields = new String[6 + extra.length];
+        fields[0] = transaction.getId().toString();
+        fields[1] = transaction.getType().toString();
+        fields[2] = transaction.getCategory().toString();
+        fields[3] = transaction.getAmount().toPlainString();
+        fields[4] = formatter.appendTime(timeText, transaction.getTransactionTime()).toString();
+        fields[5] = transaction.getDescription();
+        System.arraycopy(extra, 0, fields, 6, extra.length);
+        write(status, lineNumber, command, fields);
+    }
+
+    private void error(int lineNumber, String command, String message) throws IOException {
+
+        errors++;
+        write("ERROR", lineNumber, command, message == null ? "unknown error" : message);
+    }
+
+    private void write(String status, int lineNumber, String command, String... fields) throws IOException {
+
+        out.write(status);
+        out.write('\t');
+        out.write(Integer.toString(lineNumber));
+        out.write('\t');
+        out.write(command);
+        for (String field : fields) {
+            out.write('\t');
+            writeEscaped(field);
+        }
+        out.write('\n');
+    }
+
+    // Keeps one answer per line: tabs, line breaks and backslashes in text are escaped
+    private void writeEscaped(String value) throws IOException {
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\t' -> out.write("\\t");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\\' -> out.write("\\\\");
+                default -> out.write(c);
+            }
+        }
+    }
+}
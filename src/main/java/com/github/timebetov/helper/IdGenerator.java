@@ -0,0 +1,61 @@
+package com.github.timebetov.helper;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates time-ordered UUIDv7 ids (RFC 9562).
+ * <p>
+ * Layout: 48 bits unix millis, version 7, 12 bit counter, variant, 62 random bits. The counter starts at a
+ * random value each millisecond and goes up per id, so ids made by one thread are strictly increasing and
+ * ids of different threads are kept apart by the random bits. Nothing goes through {@code SecureRandom}.
+ * <p>
+ * These are ordinary UUIDs, stored ids that came from {@link UUID#randomUUID()} live next to them unchanged.
+ */
+public class IdGenerator {
+
+    private IdGenerator() {}
+
+    private static final int COUNTER_BITS = 12;
+    private static final int MAX_COUNTER = (1 << COUNTER_BITS) - 1;
+
+    // Seeding leaves the upper half of the counter range for ids made in the same millisecond
+    private static final int SEED_BOUND = 1 << (COUNTER_BITS - 1);
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private static final class State {
+        long millis = -1;
+        int counter;
+    }
+
+    public static UUID nextId() {
+
+        State state = STATE.get();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long now = System.currentTimeMillis();
+        if (now > state.millis) {
+            state.millis = now;
+            state.counter = random.nextInt(SEED_BOUND);
+        } else if (state.counter < MAX_COUNTER) {
+            // Same millisecond, or the clock went back: keep counting on the last timestamp
+            state.counter++;
+        } else {
+            // Counter ran out, borrow the next millisecond
+            state.millis++;
+            state.counter = random.nextInt(SEED_BOUND);
+        }
+
+        long msb = (state.millis << 16) | (7L << 12) | state.counter;
+        long lsb = (random.nextLong() >>> 2) | Long.MIN_VALUE;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * @return unix millis the id was made at, or -1 if it is not a version 7 id (e.g. a random one)
+     */
+    public static long timestampOf(UUID id) {
+        return id.version() == 7 ? id.getMostSignificantBits() >>> 16 : -1;
+    }
+}
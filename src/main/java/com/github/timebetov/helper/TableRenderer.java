@@ -0,0 +1,80 @@
+package com.github.timebetov.helper;
+
+import com.github.timebetov.models.Transaction;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Renders transaction listings into one reusable buffer that is written out in large chunks,
+ * instead of a formatted print and a flush per row.
+ */
+public class TableRenderer {
+
+    // Buffer is handed to the stream once it grows past this many characters
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+
+    private static final String NEW_LINE = System.lineSeparator();
+    private static final String SEPARATOR = "‒".repeat(135) + NEW_LINE;
+    private static final String HEADER = String.format("| %-5s " + AppConstant.DISPLAY_FORMAT,
+            "#", "ID", "TYPE", "AMOUNT", "CATEGORY", "DESCRIPTION", "DATE") + NEW_LINE;
+
+    // Listings with a running balance get one more column
+    private static final int BALANCE_WIDTH = 14;
+    private static final String BALANCE_SEPARATOR = "‒".repeat(135 + BALANCE_WIDTH + 3) + NEW_LINE;
+    private static final String BALANCE_HEADER = String.format("| %-5s " + AppConstant.DISPLAY_FORMAT + " %" + BALANCE_WIDTH + "s |",
+            "#", "ID", "TYPE", "AMOUNT", "CATEGORY", "DESCRIPTION", "DATE", "BALANCE") + NEW_LINE;
+
+    private final PrintStream out;
+    private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private final TransactionFormatter formatter = new TransactionFormatter();
+    private final StringBuilder scratch = new StringBuilder(32);
+
+    public TableRenderer(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Prints the same table as {@code "| %-5s " + DISPLAY_FORMAT} per row, framed by separators.
+     */
+    public void renderTransactions(List<Transaction> transactions) {
+        render(transactions, null);
+    }
+
+    /**
+     * Prints the same table with the balance after each transaction in a last column.
+     */
+    public void renderTransactions(List<Transaction> transactions, List<BigDecimal> balances) {
+        render(transactions, balances);
+    }
+
+    private void render(List<Transaction> transactions, List<BigDecimal> balances) {
+
+        String separator = balances == null ? SEPARATOR : BALANCE_SEPARATOR;
+        buffer.setLength(0);
+        buffer.append(separator).append(balances == null ? HEADER : BALANCE_HEADER).append(separator);
+        for (int i = 0; i < transactions.size(); i++) {
+            buffer.append("| ");
+            TransactionFormatter.padRight(buffer, Integer.toString(i + 1), 5).append(' ');
+            formatter.appendRow(buffer, transactions.get(i));
+            if (balances != null) {
+                scratch.setLength(0);
+                buffer.append(' ');
+                TransactionFormatter.padLeft(buffer, TransactionFormatter.appendAmount(scratch, balances.get(i)), BALANCE_WIDTH);
+                buffer.append(" |");
+            }
+            buffer.append(NEW_LINE);
+            if (buffer.length() >= FLUSH_THRESHOLD) flush();
+        }
+        buffer.append(separator);
+        flush();
+    }
+
+    private void flush() {
+
+        out.append(buffer);
+        out.flush();
+        buffer.setLength(0);
+    }
+}
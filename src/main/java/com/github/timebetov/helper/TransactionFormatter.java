@@ -0,0 +1,162 @@
+package com.github.timebetov.helper;
+
+import com.github.timebetov.models.Transaction;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.UUID;
+
+/**
+ * Hand-rolled equivalent of {@link AppConstant#DISPLAY_FORMAT} and {@link AppConstant#TIME_FORMAT}.
+ * Appends straight into a {@link StringBuilder} without format strings, formatter objects or per-row zone lookups.
+ * Instances cache the last rendered day, so they are not thread-safe.
+ */
+public class TransactionFormatter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ZoneRules rules;
+    private final int fixedOffsetSeconds;
+    private final boolean fixedOffset;
+
+    // "yyyy-MM-dd" of the last rendered day, listings are mostly sorted so it changes rarely
+    private long cachedEpochDay = Long.MIN_VALUE;
+    private final char[] cachedDate = new char[10];
+    private boolean cachedDateValid;
+
+    // Right aligned columns are built here first to know their width
+    private final StringBuilder scratch = new StringBuilder(32);
+
+    public TransactionFormatter() {
+        this(ZoneId.systemDefault());
+    }
+
+    public TransactionFormatter(ZoneId zone) {
+        this.rules = zone.getRules();
+        this.fixedOffset = rules.isFixedOffset();
+        this.fixedOffsetSeconds = fixedOffset ? rules.getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+    }
+
+    /**
+     * Appends the columns of {@link AppConstant#DISPLAY_FORMAT}.
+     */
+    public StringBuilder appendRow(StringBuilder sb, Transaction transaction) {
+
+        sb.append("| ");
+        appendUuid(sb, transaction.getId());
+        sb.append(" | ");
+        padRight(sb, transaction.getType().name(), 7);
+        sb.append(" | ");
+        scratch.setLength(0);
+        padLeft(sb, appendAmount(scratch, transaction.getAmount()), 10);
+        sb.append(" | ");
+        padRight(sb, transaction.getCategory().name(), 13);
+        sb.append(" | ");
+        padRight(sb, transaction.getDescription(), 20);
+        sb.append(" | ");
+        scratch.setLength(0);
+        padLeft(sb, appendTime(scratch, transaction.getTransactionTime()), 20);
+        return sb.append(" |");
+    }
+
+    /**
+     * Appends the time in {@link AppConstant#TIME_FORMAT} for this formatter's zone.
+     */
+    public StringBuilder appendTime(StringBuilder sb, Instant time) {
+
+        long epochSecond = time.getEpochSecond();
+        int offset = fixedOffset ? fixedOffsetSeconds : rules.getOffset(time).getTotalSeconds();
+        long localSecond = epochSecond + offset;
+        long epochDay = Math.floorDiv(localSecond, 86_400);
+        int secondOfDay = Math.floorMod(localSecond, 86_400);
+
+        if (epochDay != cachedEpochDay) {
+            cachedEpochDay = epochDay;
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            cachedDateValid = date.getYear() >= 0 && date.getYear() <= 9999;
+            if (cachedDateValid) {
+                writeDigits(cachedDate, 0, date.getYear(), 4);
+                cachedDate[4] = '-';
+                writeDigits(cachedDate, 5, date.getMonthValue(), 2);
+                cachedDate[7] = '-';
+                writeDigits(cachedDate, 8, date.getDayOfMonth(), 2);
+            }
+        }
+
+        // Years the pattern prints with a sign are left to the real formatter
+        if (!cachedDateValid) {
+            return sb.append(LocalDateTime.ofInstant(time, rules.getOffset(time)).format(AppConstant.TIME_FORMAT));
+        }
+
+        sb.append(cachedDate).append(' ');
+        appendTwoDigits(sb, secondOfDay / 3600).append(':');
+        appendTwoDigits(sb, secondOfDay / 60 % 60).append(':');
+        return appendTwoDigits(sb, secondOfDay % 60);
+    }
+
+    /**
+     * Appends the same text as {@link BigDecimal#toString()}, without allocating for the usual two-digit scale.
+     */
+    public static StringBuilder appendAmount(StringBuilder sb, BigDecimal amount) {
+
+        if (amount.scale() != 2 || amount.precision() > 18) {
+            return sb.append(amount);
+        }
+        long unscaled = amount.unscaledValue().longValue();
+        if (unscaled < 0) {
+            sb.append('-');
+            unscaled = -unscaled;
+        }
+        sb.append(unscaled / 100).append('.');
+        return appendTwoDigits(sb, (int) (unscaled % 100));
+    }
+
+    public static StringBuilder appendUuid(StringBuilder sb, UUID id) {
+
+        appendHex(sb, id.getMostSignificantBits() >>> 32, 8).append('-');
+        appendHex(sb, id.getMostSignificantBits() >>> 16, 4).append('-');
+        appendHex(sb, id.getMostSignificantBits(), 4).append('-');
+        appendHex(sb, id.getLeastSignificantBits() >>> 48, 4).append('-');
+        return appendHex(sb, id.getLeastSignificantBits(), 12);
+    }
+
+    // Same as %-{width}s: left aligned, longer values are not cut, null is printed as "null"
+    public static StringBuilder padRight(StringBuilder sb, String value, int width) {
+
+        String text = String.valueOf(value);
+        sb.append(text);
+        for (int i = text.length(); i < width; i++) sb.append(' ');
+        return sb;
+    }
+
+    // Same as %{width}s: right aligned, longer values are not cut
+    public static StringBuilder padLeft(StringBuilder sb, CharSequence value, int width) {
+
+        for (int i = value.length(); i < width; i++) sb.append(' ');
+        return sb.append(value);
+    }
+
+    private static StringBuilder appendHex(StringBuilder sb, long value, int digits) {
+
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            sb.append(HEX[(int) (value >>> shift) & 0xF]);
+        }
+        return sb;
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static void writeDigits(char[] target, int offset, int value, int digits) {
+
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            target[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
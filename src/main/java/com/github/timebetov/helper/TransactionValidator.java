@@ -6,6 +6,7 @@ import java.awt.*;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
@@ -15,6 +16,15 @@ import java.util.regex.Pattern;
 
 public class TransactionValidator {
 
+    // Compiled once, validators are called per command in batch mode
+    private static final Pattern AMOUNT_PATTERN = Pattern.compile("^\\d+(\\.\\d{1,2})?$");
+    private static final DateTimeFormatter TIME_INPUT_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm")
+            .optionalStart()
+            .appendPattern(":ss")
+            .optionalEnd()
+            .toFormatter();
+
     private TransactionValidator() {}
 
     public static Transaction.TransactionType isValidType(String type) {
@@ -42,7 +52,6 @@ public class TransactionValidator {
     public static BigDecimal isValidAmount(String amount) {
 
         if (amount == null || amount.isBlank()) return null;
-        final Pattern AMOUNT_PATTERN = Pattern.compile("^\\d+(\\.\\d{1,2})?$");
         if (!AMOUNT_PATTERN.matcher(amount).matches())
             throw new IllegalArgumentException("Provided amount must be in format 00.00");
         try {
@@ -52,17 +61,33 @@ public class TransactionValidator {
         }
     }
 
+    public static Integer isValidDays(String days) {
+
+        if (days == null || days.isBlank()) return null;
+        try {
+            int value = Integer.parseInt(days.trim());
+            if (value >= 0) return value;
+        } catch (NumberFormatException ex) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Number of days must be a whole number, 0 or more");
+    }
+
+    public static YearMonth isValidMonth(String month) {
+
+        if (month == null || month.isBlank()) return null;
+        try {
+            return YearMonth.parse(month.trim());
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid month format. Use 'yyyy-MM'");
+        }
+    }
+
     public static Instant isValidTime(String time) {
 
         if (time == null || time.isBlank()) return null;
-        DateTimeFormatter formatter = new DateTimeFormatterBuilder()
-                .appendPattern("yyyy-MM-dd HH:mm")
-                .optionalStart()
-                .appendPattern(":ss")
-                .optionalEnd()
-                .toFormatter();
         try {
-            LocalDateTime localDateTime = LocalDateTime.parse(time, formatter);
+            LocalDateTime localDateTime = LocalDateTime.parse(time, TIME_INPUT_FORMAT);
             return localDateTime.atZone(ZoneId.systemDefault()).toInstant();
         } catch (DateTimeParseException ex) {
             throw new IllegalArgumentException("Invalid date format. Use 'yyyy-MM-dd HH:mm' or 'yyyy-MM-dd HH:mm:ss'");
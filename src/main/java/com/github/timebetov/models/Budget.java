@@ -0,0 +1,23 @@
+package com.github.timebetov.models;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+
+/**
+ * Most a category should spend in a month, with what its expenses of the month add up to.
+ */
+public record Budget(Transaction.Category category, YearMonth month, BigDecimal limit, BigDecimal spent) {
+
+    /**
+     * @return spent as a whole percentage of the limit, rounded down
+     */
+    public int percentUsed() {
+
+        if (limit.signum() == 0) return spent.signum() == 0 ? 0 : Integer.MAX_VALUE;
+        return spent.multiply(BigDecimal.valueOf(100)).divideToIntegralValue(limit).intValue();
+    }
+
+    public boolean isExceeded() {
+        return spent.compareTo(limit) > 0;
+    }
+}
@@ -1,14 +1,13 @@
 package com.github.timebetov.models;
 
-import com.github.timebetov.helper.AppConstant;
+import com.github.timebetov.helper.IdGenerator;
+import com.github.timebetov.helper.TransactionFormatter;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -18,6 +17,9 @@ public class Transaction implements Comparable<Transaction> {
     public enum TransactionType { INCOME, EXPENSE };
     public enum Category { FOOD, SALARY, RENT, TRANSPORT, ENTERTAINMENT, OTHER };
 
+    // A formatter caches the last rendered day and is not thread-safe, each thread reuses its own
+    private static final ThreadLocal<TransactionFormatter> FORMATTER = ThreadLocal.withInitial(TransactionFormatter::new);
+
     private UUID id;
     private TransactionType type;
     private Category category;
@@ -27,7 +29,12 @@ public class Transaction implements Comparable<Transaction> {
     private boolean isDeleted;
 
     public Transaction(TransactionType type, Category category, BigDecimal amount, String description, Instant transactionTime) {
-        this.id = UUID.randomUUID();
+        this(IdGenerator.nextId(), type, category, amount, description, transactionTime);
+    }
+
+    // For transactions that already have an id, e.g. read from disk
+    public Transaction(UUID id, TransactionType type, Category category, BigDecimal amount, String description, Instant transactionTime) {
+        this.id = id;
         this.type = type;
         this.category = category;
         this.amount = amount;
@@ -38,6 +45,13 @@ public class Transaction implements Comparable<Transaction> {
         this.isDeleted = false;
     }
 
+    public Transaction copy() {
+
+        Transaction copy = new Transaction(id, type, category, amount, description, transactionTime);
+        copy.setDeleted(isDeleted);
+        return copy;
+    }
+
     public static void updateTransaction(Transaction initial, Transaction transaction) {
 
         // Like a mapper
@@ -55,7 +69,10 @@ public class Transaction implements Comparable<Transaction> {
 
     @Override
     public int compareTo(Transaction o) {
-        return transactionTime.compareTo(o.transactionTime);
+
+        // Ties on time are broken by id, so transactions made at the same moment keep one order
+        int byTime = transactionTime.compareTo(o.transactionTime);
+        return byTime != 0 ? byTime : id.compareTo(o.id);
     }
 
     @Override
@@ -71,14 +88,6 @@ public class Transaction implements Comparable<Transaction> {
 
     @Override
     public String toString() {
-        return String.format(
-                AppConstant.DISPLAY_FORMAT,
-                id,
-                type,
-                amount,
-                category,
-                description,
-                LocalDateTime.ofInstant(transactionTime, ZoneId.systemDefault()).format(AppConstant.TIME_FORMAT)
-        );
+        return FORMATTER.get().appendRow(new StringBuilder(128), this).toString();
     }
 }
@@ -0,0 +1,25 @@
+package com.github.timebetov.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Housekeeping of a ledger kept in files, services whose ledger lives only in memory do not implement it.
+ */
+public interface LedgerFiles {
+
+    /**
+     * Moves what was recorded before the time to compressed cold storage, it stays readable but takes less disk.
+     *
+     * @return number of records moved
+     */
+    int archive(Instant recordedBefore);
+
+    /**
+     * Copies what was stored since the last backup into the directory, changes keep being accepted meanwhile.
+     *
+     * @return completes with the number of bytes copied once the backup is on the disk
+     */
+    CompletableFuture<Long> backup(Path dir);
+}
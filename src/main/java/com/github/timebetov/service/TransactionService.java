@@ -1,14 +1,16 @@
 package com.github.timebetov.service;
 
 import com.github.timebetov.helper.AppConstant;
+import com.github.timebetov.models.Budget;
 import com.github.timebetov.models.Transaction;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-public interface TransactionService {
+public interface TransactionService extends AutoCloseable {
 
     String getUsername();
 
@@ -19,6 +21,105 @@ public interface TransactionService {
     void delete(String transactionId);
     void clear(boolean clearAll);
 
+    /**
+     * Adds a group of transactions at once, implementations may persist them in a single write.
+     */
+    default void addAll(List<Transaction> transactions) {
+        transactions.forEach(this::add);
+    }
+
+    /**
+     * @return completes once every change made so far is stored, right away for storages that write synchronously
+     */
+    default CompletableFuture<Void> flush() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Stores pending changes and releases files, the service is not used afterwards.
+     */
+    @Override
+    default void close() {}
+
+    /**
+     * Reverts the latest change made through this service. Steps are kept for the session only, changes made
+     * before the service was opened can not be undone.
+     *
+     * @return false if there is nothing to undo
+     */
+    boolean undo();
+
+    /**
+     * Applies again the latest undone change.
+     *
+     * @return false if there is nothing to redo
+     */
+    boolean redo();
+
+    /**
+     * @return transactions that were in the ledger (not deleted) at the given moment
+     */
+    List<Transaction> getTransactionsAsOf(Instant time);
+
+    /**
+     * @param query words the description must contain, a word ending with '*' matches words starting with it
+     * @return transactions (not deleted) whose description matches
+     */
+    List<Transaction> search(String query);
+
+    /**
+     * Sets the most the category should spend in a month, kept with the ledger.
+     *
+     * @param monthlyLimit null removes the budget of the category
+     */
+    void setBudget(Transaction.Category category, BigDecimal monthlyLimit);
+
+    /**
+     * @return budget of the category with its expenses in the month, null if the category has none
+     */
+    Budget getBudget(Transaction.Category category, YearMonth month);
+
+    /**
+     * @return budgets of all categories that have one, with their expenses in the month
+     */
+    List<Budget> getBudgets(YearMonth month);
+
+    /**
+     * @return balance of the transactions (not deleted) made at or before the time
+     */
+    default BigDecimal getBalanceAt(Instant time) {
+        return getBalance(getTransactions(false).stream()
+                .filter(t -> !t.getTransactionTime().isAfter(time))
+                .toList());
+    }
+
+    /**
+     * @return incomes minus expenses of the transactions (not deleted) made between the times, both included
+     */
+    default BigDecimal getNetFlow(Instant from, Instant to) {
+        return getBalance(getTransactions(false).stream()
+                .filter(t -> !t.getTransactionTime().isBefore(from) && !t.getTransactionTime().isAfter(to))
+                .toList());
+    }
+
+    /**
+     * @return for each given transaction the balance right after it, counting all transactions (not deleted)
+     * ordered before it by time, then by id
+     */
+    default List<BigDecimal> getRunningBalances(List<Transaction> transactions) {
+
+        List<Transaction> ordered = getTransactions(false).stream()
+                .sorted(Comparator.comparing(Transaction::getTransactionTime).thenComparing(Transaction::getId))
+                .toList();
+        Map<UUID, BigDecimal> after = new HashMap<>();
+        BigDecimal balance = BigDecimal.ZERO.setScale(2);
+        for (var transaction : ordered) {
+            balance = balance.add(getBalance(List.of(transaction)));
+            after.put(transaction.getId(), balance);
+        }
+        return transactions.stream().map(t -> after.getOrDefault(t.getId(), BigDecimal.ZERO.setScale(2))).toList();
+    }
+
     default BigDecimal getBalance(List<Transaction> transactions) {
         return transactions.stream()
                 .map(t -> t.getType() == Transaction.TransactionType.INCOME
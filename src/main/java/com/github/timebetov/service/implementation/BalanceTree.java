@@ -0,0 +1,212 @@
+package com.github.timebetov.service.implementation;
+
+import com.github.timebetov.models.Transaction;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Transactions ordered by time (then id) in a treap whose nodes also keep the signed amount sum of their
+ * subtree, so the balance up to any moment is one walk down from the root. Adding, removing and every
+ * query are O(log n).
+ * <p>
+ * A Fenwick tree would need the positions of all transactions up front, here they come and go at any time.
+ * Amounts are summed as cents, incomes count positive and expenses negative like {@code getBalance}.
+ */
+public class BalanceTree {
+
+    private static final class Node {
+
+        final long time;
+        final long most;
+        final long least;
+        final long cents;
+        final int priority;
+        long sum;
+        Node left;
+        Node right;
+
+        Node(Transaction transaction) {
+            this.time = transaction.getTransactionTime().toEpochMilli();
+            this.most = transaction.getId().getMostSignificantBits();
+            this.least = transaction.getId().getLeastSignificantBits();
+            this.cents = signedCents(transaction);
+            this.priority = ThreadLocalRandom.current().nextInt();
+            this.sum = cents;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public void add(Transaction transaction) {
+
+        Node node = new Node(transaction);
+        Node[] parts = split(root, node.time, node.most, node.least);
+        root = merge(merge(parts[0], node), parts[1]);
+        size++;
+    }
+
+    /**
+     * Removes the transaction as it was added, the instance must still have the time and id it had then.
+     */
+    public void remove(Transaction transaction) {
+
+        long time = transaction.getTransactionTime().toEpochMilli();
+        UUID id = transaction.getId();
+        Node[] parts = split(root, time, id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+        // The transaction is the last node of the left part
+        Node[] last = splitLast(parts[0]);
+        if (last[1] == null || last[1].most != id.getMostSignificantBits() || last[1].least != id.getLeastSignificantBits()) {
+            root = merge(parts[0], parts[1]);
+            return;
+        }
+        root = merge(last[0], parts[1]);
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return balance of the transactions made at or before the time
+     */
+    public BigDecimal balanceAt(Instant time) {
+        return BigDecimal.valueOf(centsUpTo(time.toEpochMilli()), 2);
+    }
+
+    /**
+     * @return incomes minus expenses made between the times, both included
+     */
+    public BigDecimal netFlow(Instant from, Instant to) {
+        return BigDecimal.valueOf(centsUpTo(to.toEpochMilli()) - centsUpTo(from.toEpochMilli() - 1), 2);
+    }
+
+    /**
+     * @return balance right after the transaction, counting everything ordered before it by time and id
+     */
+    public BigDecimal balanceAfter(Transaction transaction) {
+
+        long time = transaction.getTransactionTime().toEpochMilli();
+        long most = transaction.getId().getMostSignificantBits();
+        long least = transaction.getId().getLeastSignificantBits();
+        long cents = 0;
+        Node node = root;
+        while (node != null) {
+            if (compare(node.time, node.most, node.least, time, most, least) <= 0) {
+                cents += sum(node.left) + node.cents;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * @return ids of the transactions made exactly at the time, in id order
+     */
+    public List<UUID> idsAt(Instant time) {
+
+        List<UUID> ids = new ArrayList<>();
+        collect(root, time.toEpochMilli(), ids);
+        return ids;
+    }
+
+    private static void collect(Node node, long time, List<UUID> ids) {
+
+        if (node == null) return;
+        if (node.time >= time) collect(node.left, time, ids);
+        if (node.time == time) ids.add(new UUID(node.most, node.least));
+        if (node.time <= time) collect(node.right, time, ids);
+    }
+
+    private long centsUpTo(long time) {
+
+        long cents = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.time <= time) {
+                cents += sum(node.left) + node.cents;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return cents;
+    }
+
+    // [nodes ordered at or before the key, nodes after it]
+    private static Node[] split(Node node, long time, long most, long least) {
+
+        if (node == null) return new Node[2];
+        if (compare(node.time, node.most, node.least, time, most, least) <= 0) {
+            Node[] parts = split(node.right, time, most, least);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, time, most, least);
+        node.left = parts[1];
+        update(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    // [all but the last node, the last node]
+    private static Node[] splitLast(Node node) {
+
+        if (node == null) return new Node[2];
+        if (node.right == null) return new Node[]{node.left, node};
+        Node[] parts = splitLast(node.right);
+        node.right = parts[0];
+        update(node);
+        parts[0] = node;
+        return parts;
+    }
+
+    // Every node of 'left' is ordered before every node of 'right'
+    private static Node merge(Node left, Node right) {
+
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static void update(Node node) {
+        node.sum = sum(node.left) + node.cents + sum(node.right);
+    }
+
+    private static long sum(Node node) {
+        return node == null ? 0 : node.sum;
+    }
+
+    private static int compare(long time, long most, long least, long otherTime, long otherMost, long otherLeast) {
+
+        // Same order as comparing the time, then UUID.compareTo
+        int byTime = Long.compare(time, otherTime);
+        if (byTime != 0) return byTime;
+        int byMost = Long.compare(most, otherMost);
+        return byMost != 0 ? byMost : Long.compare(least, otherLeast);
+    }
+
+    private static long signedCents(Transaction transaction) {
+
+        long cents = transaction.getAmount().movePointRight(2).longValueExact();
+        return transaction.getType() == Transaction.TransactionType.INCOME ? cents : -cents;
+    }
+}
@@ -1,50 +1,170 @@
 package com.github.timebetov.service.implementation;
 
+import com.github.timebetov.models.Budget;
 import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.LedgerFiles;
 import com.github.timebetov.service.TransactionService;
+import com.github.timebetov.storage.BloomFilterFile;
+import com.github.timebetov.storage.BudgetCounters;
+import com.github.timebetov.storage.CheckpointFile;
+import com.github.timebetov.storage.HashIndexFile;
+import com.github.timebetov.storage.LedgerBackup;
+import com.github.timebetov.storage.LegacyLedgerFile;
+import com.github.timebetov.storage.LogArchive;
+import com.github.timebetov.storage.LogRecord;
+import com.github.timebetov.storage.SearchIndex;
+import com.github.timebetov.storage.StringDictionary;
+import com.github.timebetov.storage.TransactionIndex;
+import com.github.timebetov.storage.TransactionLog;
+import com.github.timebetov.storage.WriteBehindQueue;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-public class InFilesTransactionService implements TransactionService {
+public class InFilesTransactionService implements TransactionService, LedgerFiles {
+
+    // Undo steps kept for the session, the oldest are dropped beyond this
+    private static final int UNDO_LIMIT = 100;
+
+    // A checkpoint is written when the log grew by this many bytes per indexed transaction since the last one,
+    // so replaying up to any point in time never reads more than about a full load
+    private static final long CHECKPOINT_BYTES_PER_ENTRY = 64;
+    private static final long MIN_CHECKPOINT_DISTANCE = 64 * 1024;
+
+    // Changes waiting for the writer thread before callers are held back
+    private static final int WRITE_QUEUE_CAPACITY = 4096;
+
+    public static final Path DATA_DIR = Path.of("data");
 
     private final String username;
-    private final Map<UUID, Long> indexedUUIDs;
-    private final List<Transaction> transactions;
+    private final Map<UUID, Transaction> transactions;
+
+    // Signed amounts of the transactions (not deleted) by time, for balances at any moment
+    private final BalanceTree balances = new BalanceTree();
 
     private final Path dataPath;
     private final Path idxPath;
+    private final Path checkpointPath;
+    private final Path searchPath;
+    private final Path dictionaryPath;
+    private final Path archivePath;
+    private final Path archiveIndexPath;
+    private final Path duplicatesPath;
+    private final Path budgetsPath;
+
+    private TransactionLog log;
+    private LogArchive archive;
+
+    // Fingerprints of the contents of transactions (not deleted), owned by the caller thread like the model
+    private BloomFilterFile duplicates;
+
+    // Expenses per category and month with the limits set on them, owned by the caller thread like the model
+    private BudgetCounters budgets;
+    private TransactionIndex index;
+    private CheckpointFile checkpoints;
+    private SearchIndex search;
+    private StringDictionary dictionary;
+    private long lastRecordedAt;
+
+    // Storage above is owned by this thread in asynchronous mode, null when callers write themselves
+    private final WriteBehindQueue writer;
+    private long persistedRecordedAt;
+    private boolean closed;
+
+    // Drains the writer if the JVM exits before close(), removed again by close()
+    private final Thread shutdownHook;
+
+    // Each step is the list of changes one call made, model instances are never modified in place
+    private final Deque<List<Change>> undoHistory = new ArrayDeque<>();
+    private final Deque<List<Change>> redoHistory = new ArrayDeque<>();
+
+    // Completes once indexes and transactions are read from disk
+    private final CompletableFuture<Void> loading;
+
+    // Files are open and readable while transactions are still being loaded into memory
+    private volatile boolean storageOpen;
+
+    /**
+     * @param before version before the change, null if the change added the transaction
+     * @param after  version after the change, null if the change removed the transaction
+     */
+    private record Change(UUID id, Transaction before, Transaction after) {}
 
     public InFilesTransactionService(String username) {
+        this(username, false);
+    }
+
+    public InFilesTransactionService(String username, boolean loadInBackground) {
+        this(username, loadInBackground, false);
+    }
+
+    public InFilesTransactionService(String username, boolean loadInBackground, boolean asyncWrites) {
+        this(DATA_DIR, username, loadInBackground, asyncWrites);
+    }
+
+    public InFilesTransactionService(Path dataDir, String username, boolean loadInBackground) {
+        this(dataDir, username, loadInBackground, false);
+    }
+
+    /**
+     * @param dataDir directory holding the user's data files
+     * @param loadInBackground if true the constructor returns immediately and the ledger is read on a
+     *                         separate thread; calls that need the data wait until it is loaded
+     * @param asyncWrites if true changes apply to memory right away and a writer thread puts them on disk in batches,
+     *                    {@link #flush()} tells when they are there; otherwise every call writes before it returns
+     */
+    public InFilesTransactionService(Path dataDir, String username, boolean loadInBackground, boolean asyncWrites) {
         this.username = username;
-        this.dataPath = Path.of("data", username+"_data.dat");
-        this.idxPath = Path.of("data", username+"_data.idx");
-        this.indexedUUIDs = new LinkedHashMap<>();
-        this.transactions = new ArrayList<>();
+        this.dataPath = dataDir.resolve(username+"_data.dat");
+        this.idxPath = dataDir.resolve(username+"_data.idx");
+        this.checkpointPath = dataDir.resolve(username+"_data.ckp");
+        this.searchPath = dataDir.resolve(username+"_data.fts");
+        this.dictionaryPath = dataDir.resolve(username+"_data.dic");
+        this.archivePath = dataDir.resolve(username+"_data.arc");
+        this.archiveIndexPath = dataDir.resolve(username+"_data.arx");
+        this.duplicatesPath = dataDir.resolve(username+"_data.blm");
+        this.budgetsPath = dataDir.resolve(username+"_data.bgt");
+        this.transactions = new LinkedHashMap<>();
 
         try {
             if (!Files.exists(dataPath.getParent()))
-                Files.createDirectory(dataPath.getParent());
-            if (!Files.exists(dataPath)) {
-                Files.createFile(dataPath);
-
-                // CASE: Get rid of old data
-                Files.deleteIfExists(idxPath);
-                Files.createFile(idxPath);
-            }
-
-            // Loading indexes and data from saved file
-            loadIndex();
-            loadTransactions();
+                Files.createDirectories(dataPath.getParent());
         } catch (IOException ex) {
             // Ignore
         }
+
+        // Loading indexes and data from saved file
+        if (loadInBackground) {
+            this.loading = CompletableFuture.runAsync(this::load, task -> {
+                Thread loader = new Thread(task, "ledger-loader");
+                loader.setDaemon(true);
+                loader.start();
+            });
+        } else {
+            load();
+            this.loading = CompletableFuture.completedFuture(null);
+        }
+
+        if (asyncWrites) {
+            this.writer = new WriteBehindQueue("ledger-writer", WRITE_QUEUE_CAPACITY, () -> {
+                flushStorage();
+                log.force();
+            });
+            this.shutdownHook = new Thread(this::close, "ledger-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            this.writer = null;
+            this.shutdownHook = null;
+        }
     }
 
     @Override
@@ -55,225 +175,645 @@ public class InFilesTransactionService implements TransactionService {
     @Override
     public void add(Transaction transaction) {
 
-        if (indexedUUIDs.containsKey(transaction.getId()))
+        awaitLoaded();
+
+        if (transactions.containsKey(transaction.getId()))
             throw new IllegalArgumentException("Transaction with ID: " + transaction.getId() + " already exists");
+        rejectDuplicate(transaction, null);
 
-        try (
-                RandomAccessFile da = new RandomAccessFile(dataPath.toString(), "rw");
-                RandomAccessFile ia = new RandomAccessFile(idxPath.toString(), "rw")
-        ) {
-            long position = da.length();
-            writeTransaction(da, transaction);
-            indexedUUIDs.put(transaction.getId(), position);
-            writeIndex(ia, transaction.getId(), position);
-            this.transactions.add(transaction);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        commit(List.of(new Change(transaction.getId(), null, transaction)));
+    }
+
+    @Override
+    public void addAll(List<Transaction> batch) {
+
+        awaitLoaded();
+
+        // Validating whole batch first, nothing is written if any of them fails
+        Set<UUID> batchIds = new HashSet<>();
+        Map<Long, Transaction> batchContents = new HashMap<>();
+        List<Change> changes = new ArrayList<>(batch.size());
+        for (var transaction : batch) {
+            if (transactions.containsKey(transaction.getId()) || !batchIds.add(transaction.getId()))
+                throw new IllegalArgumentException("Transaction with ID: " + transaction.getId() + " already exists");
+            rejectDuplicate(transaction, batchContents);
+            changes.add(new Change(transaction.getId(), null, transaction));
         }
+
+        // One write for the batch, but each transaction is undone on its own like after add
+        write(changes);
+        redoHistory.clear();
+        changes.forEach(change -> pushUndo(List.of(change)));
     }
 
     @Override
     public List<Transaction> getTransactions(boolean isDeleted) {
-        return transactions.stream()
+
+        awaitLoaded();
+
+        // The map is in the order of the last change, which a restart or an update reshuffles
+        return transactions.values().stream()
                 .filter(t -> t.isDeleted() == isDeleted)
+                .sorted()
                 .toList();
     }
 
     @Override
     public void update(String transactionId, Transaction transaction) {
 
-        Transaction update = getById(transactionId);
-        try (RandomAccessFile da = new RandomAccessFile(dataPath.toString(), "rw");
-             RandomAccessFile ia = new RandomAccessFile(idxPath.toString(), "rw")) {
+        awaitLoaded();
 
-            Transaction.updateTransaction(update, transaction);
+        Transaction current = getById(transactionId);
+        Transaction updated = current.copy();
+        Transaction.updateTransaction(updated, transaction);
+        commit(List.of(new Change(current.getId(), current, updated)));
+    }
 
-            long oldPosition = indexedUUIDs.get(update.getId());
+    @Override
+    public void delete(String transactionId) {
 
-            // STEP 1: Mark old transaction as deleted
-            da.seek(oldPosition);
-            da.writeBoolean(true);
+        awaitLoaded();
 
-            // STEP 2: Add it like a new record in file
-            long newPosition = da.length();
-            writeTransaction(da, update);
+        // Deleting is a new version marked as deleted, the previous one stays in the log
+        Transaction current = getById(transactionId);
+        Transaction deleted = current.copy();
+        deleted.setDeleted(true);
+        commit(List.of(new Change(current.getId(), current, deleted)));
+    }
 
-            // STEP 3: Refresh indexes
-            indexedUUIDs.put(update.getId(), newPosition);
-            overwriteIndex(ia);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
+    @Override
+    public void clear(boolean clearAll) {
+
+        awaitLoaded();
+
+        // Clearing only trash >> Removing items marked as deleted, history stays in the log
+        List<Change> changes = transactions.values().stream()
+                .filter(t -> clearAll || t.isDeleted())
+                .map(t -> new Change(t.getId(), t, null))
+                .toList();
+        if (!changes.isEmpty()) commit(changes);
     }
 
     @Override
-    public void delete(String transactionId) {
+    public Transaction getById(String transactionId) {
 
         UUID id = UUID.fromString(transactionId);
-        long position = indexedUUIDs.get(id);
+        Transaction transaction;
+        if (!loading.isDone() && storageOpen) {
+            // Looked up on disk while the rest is still loading, instead of waiting for all of it
+            transaction = readLatest(id);
+        } else {
+            awaitLoaded();
+            transaction = transactions.get(id);
+        }
+        if (transaction == null || transaction.isDeleted())
+            throw new IllegalArgumentException("Transaction with ID: " + transactionId + " not found");
+        return transaction;
+    }
+
+    @Override
+    public boolean undo() {
+
+        awaitLoaded();
+
+        if (undoHistory.isEmpty()) return false;
+        List<Change> step = undoHistory.pop();
+        List<Change> reverted = new ArrayList<>(step.size());
+        for (int i = step.size() - 1; i >= 0; i--) {
+            Change change = step.get(i);
+            reverted.add(new Change(change.id(), change.after(), change.before()));
+        }
+        write(reverted);
+        redoHistory.push(step);
+        return true;
+    }
+
+    @Override
+    public boolean redo() {
+
+        awaitLoaded();
+
+        if (redoHistory.isEmpty()) return false;
+        List<Change> step = redoHistory.pop();
+        write(step);
+        pushUndo(step);
+        return true;
+    }
+
+    @Override
+    public List<Transaction> getTransactionsAsOf(Instant time) {
 
-        try (RandomAccessFile ra = new RandomAccessFile(dataPath.toString(), "rw")) {
+        awaitLoaded();
+        awaitWrites();
 
-            for (var transaction : transactions)
-                if (transaction.getId().equals(id))
-                    transaction.setDeleted(true);
+        long asOf = time.toEpochMilli();
+        try {
+            // Starting from the snapshot when it is not newer, otherwise from the beginning, records are replayed up to the time
+            CheckpointFile.Checkpoint checkpoint = checkpoints.latestAtOrBefore(asOf);
+            Map<UUID, Long> state = checkpoint != null ? checkpoint.index() : new LinkedHashMap<>();
+            long from = checkpoint != null ? checkpoint.logOffset() : 0;
+            log.scan(from, record -> {
+                if (record.recordedAt() > asOf) return false;
+                if (record.type() == LogRecord.Type.PUT) state.put(record.id(), record.offset());
+                else state.remove(record.id());
+                return true;
+            });
 
-            ra.seek(position);
-            ra.writeBoolean(true);
+            // The versions are read in one forward pass, like on load, not one by one in map order
+            long[] offsets = state.values().stream().mapToLong(Long::longValue).sorted().toArray();
+            List<Transaction> result = new ArrayList<>(offsets.length);
+            if (offsets.length > 0) {
+                int[] next = new int[1];
+                log.scan(offsets[0], record -> {
+                    if (record.offset() != offsets[next[0]]) return true;
+                    if (!record.transaction().isDeleted()) result.add(record.transaction());
+                    return ++next[0] < offsets.length;
+                });
+            }
+            Collections.sort(result);
+            return result;
         } catch (IOException ex) {
-            throw new RuntimeException(ex.getMessage());
+            throw new RuntimeException("Something went wrong when reading history: " + ex.getMessage());
         }
     }
 
     @Override
-    public void clear(boolean clearAll) {
+    public void setBudget(Transaction.Category category, BigDecimal monthlyLimit) {
 
+        awaitLoaded();
         try {
-            Files.deleteIfExists(idxPath);
-            Files.deleteIfExists(dataPath);
+            budgets.setLimit(category, monthlyLimit);
+            budgets.saveLimits();
+        } catch (IOException ex) {
+            throw new RuntimeException("Something went wrong when saving budget: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public Budget getBudget(Transaction.Category category, YearMonth month) {
 
-            Files.createFile(idxPath);
-            Files.createFile(dataPath);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        awaitLoaded();
+        return budgets.budget(category, month);
+    }
+
+    @Override
+    public List<Budget> getBudgets(YearMonth month) {
+
+        awaitLoaded();
+        return budgets.budgets(month);
+    }
+
+    @Override
+    public BigDecimal getBalanceAt(Instant time) {
+
+        awaitLoaded();
+        return balances.balanceAt(time);
+    }
+
+    @Override
+    public BigDecimal getNetFlow(Instant from, Instant to) {
+
+        awaitLoaded();
+        return balances.netFlow(from, to);
+    }
+
+    @Override
+    public List<BigDecimal> getRunningBalances(List<Transaction> transactions) {
+
+        awaitLoaded();
+        List<BigDecimal> running = new ArrayList<>(transactions.size());
+        for (var transaction : transactions) {
+            running.add(balances.balanceAfter(transaction));
         }
+        return running;
+    }
 
-        List<Transaction> remainingTransactions = transactions.stream()
-                .filter(t -> !t.isDeleted())
-                .toList();
+    @Override
+    public List<Transaction> search(String query) {
+
+        awaitLoaded();
+        awaitWrites();
+
+        List<Transaction> found = new ArrayList<>();
+        for (UUID id : search.find(query)) {
+            Transaction transaction = transactions.get(id);
+            if (transaction != null && !transaction.isDeleted()) found.add(transaction);
+        }
+        return found;
+    }
 
-        transactions.clear();
-        indexedUUIDs.clear();
+    @Override
+    public int archive(Instant recordedBefore) {
+
+        awaitLoaded();
+
+        // Runs where the log is written, after the changes queued before it
+        int[] moved = new int[1];
+        WriteBehindQueue.Task task = () -> {
+            flushStorage();
+            moved[0] = log.archive(recordedBefore.toEpochMilli(), index);
+        };
+        try {
+            if (writer != null) writer.submit(task).join();
+            else task.run();
+        } catch (IOException ex) {
+            throw new RuntimeException("Something went wrong when archiving transactions: " + ex.getMessage());
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("Writing to disk failed: " + ex.getCause().getMessage(), ex.getCause());
+        }
+        return moved[0];
+    }
+
+    @Override
+    public CompletableFuture<Long> backup(Path dir) {
 
-        if (clearAll) {
-            return;
+        awaitLoaded();
+
+        // Ends of the files are taken where the log is written, copying them runs beside the writes after it
+        LedgerBackup[] snapshot = new LedgerBackup[1];
+        WriteBehindQueue.Task task = () -> {
+            flushStorage();
+            Map<String, Path> files = new LinkedHashMap<>();
+            for (Path path : List.of(dictionaryPath, archivePath, archiveIndexPath, dataPath)) {
+                files.put(path.getFileName().toString(), path);
+            }
+            snapshot[0] = LedgerBackup.snapshot(files, Map.of(dataPath.getFileName().toString(), log.base()));
+        };
+
+        CompletableFuture<Void> taken;
+        if (writer != null) {
+            taken = writer.submit(task);
+        } else {
+            try {
+                task.run();
+            } catch (IOException ex) {
+                throw new RuntimeException("Something went wrong when backing up transactions: " + ex.getMessage());
+            }
+            taken = CompletableFuture.completedFuture(null);
         }
 
-        // Clearing only trash >> Saving remaining items marked as NOT deleted
-        remainingTransactions.forEach(this::add);
+        return taken.thenApplyAsync(ignored -> {
+            try (LedgerBackup backup = snapshot[0]) {
+                return backup.copyTo(dir, manifestName(username));
+            } catch (IOException ex) {
+                throw new RuntimeException("Something went wrong when backing up transactions: " + ex.getMessage());
+            }
+        }, copy -> new Thread(copy, "ledger-backup").start());
+    }
+
+    /**
+     * Replaces the user's files in the data directory by the latest backup, the indexes derived from them are
+     * rebuilt and the budgets counted again from the log when the ledger is opened next; budget limits are kept.
+     * Must not run while a service has the ledger open.
+     */
+    public static void restore(Path backupDir, Path dataDir, String username) {
+
+        try {
+            LedgerBackup.restore(backupDir, manifestName(username), dataDir);
+            Files.deleteIfExists(dataDir.resolve(username+"_data.idx"));
+            Files.deleteIfExists(TransactionLog.liveCopyPath(dataDir.resolve(username+"_data.dat")));
+            Files.deleteIfExists(dataDir.resolve(username+"_data.ckp"));
+            Files.deleteIfExists(dataDir.resolve(username+"_data.fts"));
+            Files.deleteIfExists(dataDir.resolve(username+"_data.blm"));
+            BudgetCounters.dropCounters(dataDir.resolve(username+"_data.bgt"), ZoneId.systemDefault());
+        } catch (IOException ex) {
+            throw new RuntimeException("Something went wrong when restoring transactions: " + ex.getMessage());
+        }
     }
 
     @Override
-    public Transaction getById(String transactionId) {
+    public CompletableFuture<Void> flush() {
 
-        UUID id = UUID.fromString(transactionId);
-        return transactions.stream()
-                .filter(t -> !t.isDeleted())
-                .filter(t -> t.getId().equals(id))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("Transaction with ID: " + transactionId + " not found"));
+        awaitLoaded();
+        return writer != null ? writer.barrier() : CompletableFuture.completedFuture(null);
     }
 
-    private void writeTransaction(RandomAccessFile ra, Transaction data) throws IOException {
+    /**
+     * Writes out queued changes and closes the files.
+     */
+    @Override
+    public synchronized void close() {
+
+        if (closed) return;
+        closed = true;
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ex) {
+                // The JVM is shutting down, the hook runs or is running this
+            }
+        }
+        try {
+            awaitLoaded();
+            if (writer != null) writer.close();
+            budgets.save(log.length());
+            search.save();
+            log.close();
+            archive.close();
+            dictionary.close();
+            index.close();
+            duplicates.close();
+        } catch (IOException ex) {
+            throw new RuntimeException("Something went wrong when saving transactions: " + ex.getMessage());
+        }
+    }
 
-        // Pointer: End of the file
-        ra.seek(ra.length());
+    // Writes a step made by a call and makes it the one to undo next
+    private void commit(List<Change> changes) {
 
-        // Serializing & Writing actual data
-        ra.writeBoolean(data.isDeleted());                          // boolean writes 1 byte
-        ra.writeUTF(data.getType().toString());                     // size depends on character size
-        ra.writeUTF(data.getCategory().toString());
+        write(changes);
+        redoHistory.clear();
+        pushUndo(changes);
+    }
 
-        // Splitting & Writing BigDecimal
-        BigDecimal amount = data.getAmount();
-        ra.writeInt(amount.scale());                                // Scale of BigDecimal and int writes 4 bytes
-        byte[] unscaledBytes = amount.unscaledValue().toByteArray();
-        ra.writeInt(unscaledBytes.length);                          // Length of an array
-        ra.write(unscaledBytes);                                    // Bytes
+    private void pushUndo(List<Change> step) {
 
-        ra.writeUTF(data.getDescription());                         // Description
-        ra.writeLong(data.getTransactionTime().toEpochMilli());     // Timestamp UTC
+        undoHistory.push(step);
+        if (undoHistory.size() > UNDO_LIMIT) undoHistory.removeLast();
     }
 
-    private void writeIndex(RandomAccessFile ra, UUID transactionId, long lastDataPosition) throws IOException {
+    // Persists the changes, then points the in-memory model at the new versions
+    private void write(List<Change> changes) {
+
+        long recordedAt = Math.max(lastRecordedAt, System.currentTimeMillis());
+        if (writer != null) {
+            writer.submit(() -> persist(changes, recordedAt));
+        } else {
+            try {
+                persist(changes, recordedAt);
+                flushStorage();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
 
-        // Writing records length
-        ra.seek(0);
-        ra.writeInt(indexedUUIDs.size());
+        lastRecordedAt = recordedAt;
+        for (var change : changes) {
+            if (change.after() != null) {
+                // Equal descriptions share one instance, like the ones read from the log
+                change.after().setDescription(dictionary.canonical(change.after().getDescription()));
+                transactions.put(change.id(), change.after());
+            } else {
+                transactions.remove(change.id());
+            }
 
-        ra.seek(ra.length());
-        addIndex(ra, transactionId, lastDataPosition);
+            if (change.before() != null && !change.before().isDeleted()) {
+                balances.remove(change.before());
+                budgets.remove(change.before());
+            }
+            if (change.after() != null && !change.after().isDeleted()) {
+                balances.add(change.after());
+                budgets.add(change.after());
+                rememberContent(change.after());
+            }
+        }
     }
 
-    private void addIndex(RandomAccessFile ra, UUID transactionId, long lastDataPosition) throws IOException {
+    // A transaction with the same content as one in the ledger (not deleted) or earlier in the batch is refused,
+    // so importing the same rows again does not double them
+    private void rejectDuplicate(Transaction transaction, Map<Long, Transaction> batch) {
 
-        ra.writeLong(transactionId.getMostSignificantBits());       // writing UUID.mostSignificantBits as Long
-        ra.writeLong(transactionId.getLeastSignificantBits());      // writing UUID.leastSignificantBits as Long
-        ra.writeLong(lastDataPosition);                             // writing position in file as Long
+        long fingerprint = fingerprint(transaction);
+        if (batch != null) {
+            Transaction earlier = batch.putIfAbsent(fingerprint, transaction);
+            if (earlier != null && sameContent(earlier, transaction)) throw duplicate(transaction, earlier);
+        }
+
+        // The filter rules out almost every new transaction, the rest are compared with the ones made at the same time
+        if (!duplicates.mightContain(fingerprint)) return;
+        for (UUID id : balances.idsAt(transaction.getTransactionTime())) {
+            Transaction existing = transactions.get(id);
+            if (existing != null && sameContent(existing, transaction)) throw duplicate(transaction, existing);
+        }
     }
 
-    private void overwriteIndex(RandomAccessFile ra) throws IOException {
+    private void rememberContent(Transaction transaction) {
 
-        ra.setLength(0);
-        ra.seek(0);
-        ra.writeInt(indexedUUIDs.size());
-        for (var entry : indexedUUIDs.entrySet()) {
-            addIndex(ra, entry.getKey(), entry.getValue());
+        try {
+            // Full filters are created again, sized for what the ledger holds now
+            if (duplicates.entries() >= duplicates.capacity()) createDuplicateFilter();
+            duplicates.add(fingerprint(transaction));
+        } catch (IOException ex) {
+            throw new RuntimeException("Something went wrong when saving transactions: " + ex.getMessage());
         }
     }
 
-    private Transaction readTransaction(RandomAccessFile ra, UUID id) throws IOException {
+    private void createDuplicateFilter() throws IOException {
 
-        long positionInFile = indexedUUIDs.get(id);
-        ra.seek(positionInFile);
+        if (duplicates != null) duplicates.close();
+        long live = transactions.values().stream().filter(t -> !t.isDeleted()).count();
+        duplicates = BloomFilterFile.create(duplicatesPath, live * 2);
+        for (var transaction : transactions.values()) {
+            if (!transaction.isDeleted()) duplicates.add(fingerprint(transaction));
+        }
+    }
 
-        boolean isDeleted = ra.readBoolean();
-        var type = Transaction.TransactionType.valueOf(ra.readUTF());
-        var category = Transaction.Category.valueOf(ra.readUTF());
+    private static IllegalArgumentException duplicate(Transaction transaction, Transaction existing) {
+        return new IllegalArgumentException("Transaction " + transaction.getId() + " duplicates transaction with ID: " + existing.getId());
+    }
 
-        // Reading amount (BigDecimal)
-        int scale = ra.readInt();
-        int lengthOfBytes = ra.readInt();
-        byte[] unscaledBytes = new byte[lengthOfBytes];
-        ra.readFully(unscaledBytes);
+    // Hash of what makes two transactions the same entry: type, category, amount, time and description
+    private static long fingerprint(Transaction transaction) {
 
-        BigInteger unscaled = new BigInteger(unscaledBytes);
-        BigDecimal amount = new BigDecimal(unscaled, scale);
+        BigDecimal amount = transaction.getAmount().stripTrailingZeros();
+        long hash = transaction.getType().name().hashCode();
+        hash = hash * 31 + transaction.getCategory().name().hashCode();
+        hash = hash * 1_000_003 + amount.unscaledValue().longValue();
+        hash = hash * 31 + amount.scale();
+        hash = hash * 1_000_003 + transaction.getTransactionTime().toEpochMilli();
+        return hash * 1_000_003 + Objects.hashCode(transaction.getDescription());
+    }
 
-        String description = ra.readUTF();
-        Instant transactionTime = Instant.ofEpochMilli(ra.readLong());
+    private static boolean sameContent(Transaction a, Transaction b) {
 
-        Transaction transaction = new Transaction(type, category, amount, description, transactionTime);
-        transaction.setId(id);
-        transaction.setDeleted(isDeleted);
-        return transaction;
+        return a.getType() == b.getType()
+                && a.getCategory() == b.getCategory()
+                && a.getAmount().compareTo(b.getAmount()) == 0
+                && a.getTransactionTime().equals(b.getTransactionTime())
+                && Objects.equals(a.getDescription(), b.getDescription());
+    }
+
+    // Appends one record per change to the log and points the index at them
+    private void persist(List<Change> changes, long recordedAt) throws IOException {
+
+        List<LogRecord> records = new ArrayList<>(changes.size());
+        for (var change : changes) {
+            long previous = index.get(change.id());
+            records.add(change.after() != null
+                    ? LogRecord.put(change.after(), previous, recordedAt)
+                    : LogRecord.remove(change.id(), previous, recordedAt));
+        }
+        long[] offsets = log.appendAll(records);
+        persistedRecordedAt = recordedAt;
+        for (int i = 0; i < changes.size(); i++) {
+            search.add(offsets[i], changes.get(i).after());
+        }
+
+        Map<UUID, Long> puts = new LinkedHashMap<>();
+        List<UUID> removes = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            if (changes.get(i).after() != null) puts.put(changes.get(i).id(), offsets[i]);
+            else removes.add(changes.get(i).id());
+        }
+        if (!removes.isEmpty()) index.removeAll(removes);
+        if (!puts.isEmpty()) index.putAll(puts);
+    }
+
+    private void flushStorage() throws IOException {
+
+        log.flush();
+        index.flush();
+        maybeCheckpoint();
     }
 
-    private void loadIndex() {
+    private void maybeCheckpoint() throws IOException {
+
+        long since = Math.max(checkpoints.lastLogOffset(), 0);
+        long distance = Math.max(MIN_CHECKPOINT_DISTANCE, index.size() * CHECKPOINT_BYTES_PER_ENTRY);
+        if (log.length() - since >= distance) {
+            checkpoints.add(log.length(), persistedRecordedAt, index);
+            search.save();
+        }
+    }
 
-        try (RandomAccessFile ra = new RandomAccessFile(idxPath.toString(), "r")) {
-            ra.seek(0);
-            if (ra.length() < 4) return;
-            int size = ra.readInt();
+    // Reading storage directly is only safe once the writer thread caught up
+    private void awaitWrites() {
 
-            for (int i = 0; i < size; i++) {
-                if (ra.getFilePointer() + 24 > ra.length()) break; // 3 long = 24 bytes
+        if (writer == null) return;
+        try {
+            writer.barrier().join();
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("Writing to disk failed: " + ex.getCause().getMessage(), ex.getCause());
+        }
+    }
 
-                long most = ra.readLong();
-                long least = ra.readLong();
-                long pos = ra.readLong();
+    private void load() {
 
-                UUID key = new UUID(most, least);
-                indexedUUIDs.put(key, pos);
+        try {
+            if (!Files.exists(dataPath)) {
+                // CASE: Get rid of old data
+                Files.deleteIfExists(idxPath);
+                Files.deleteIfExists(checkpointPath);
+                Files.deleteIfExists(searchPath);
+                Files.deleteIfExists(dictionaryPath);
+                Files.deleteIfExists(archivePath);
+                Files.deleteIfExists(archiveIndexPath);
+                Files.deleteIfExists(duplicatesPath);
+                Files.deleteIfExists(budgetsPath);
             }
+            migrateLegacyData();
+            dictionary = StringDictionary.open(dictionaryPath);
+            archive = LogArchive.open(archivePath, archiveIndexPath);
+
+            // Records up to the latest checkpoint are complete, only the ones after it may be cut short by a crash
+            checkpoints = CheckpointFile.open(checkpointPath);
+            log = TransactionLog.open(dataPath, dictionary, archive, checkpoints.lastLogOffset());
+            if (log.droppedBytes() > 0) {
+                // Files derived from the log may point into the record that was dropped, they are built again
+                Files.deleteIfExists(idxPath);
+                Files.deleteIfExists(checkpointPath);
+                Files.deleteIfExists(searchPath);
+                checkpoints = CheckpointFile.open(checkpointPath);
+            }
+
+            // Index left open by a crash or in the old format is recovered from the log
+            boolean rebuild = !HashIndexFile.isClean(idxPath);
+            if (rebuild) Files.deleteIfExists(idxPath);
+            index = HashIndexFile.open(idxPath);
+            if (rebuild) rebuildIndex();
+
+            storageOpen = true;
+            loadTransactions();
+            search = SearchIndex.open(searchPath, log, index);
+
+            // Filter left open by a crash may miss transactions, it is created again from the loaded ones
+            if (BloomFilterFile.isClean(duplicatesPath)) duplicates = BloomFilterFile.open(duplicatesPath);
+            else createDuplicateFilter();
+
+            // Counters saved for another state of the log are counted again, the limits are kept
+            budgets = BudgetCounters.open(budgetsPath, log.length(), ZoneId.systemDefault());
+            if (!budgets.isCurrent()) budgets.recount(transactions.values());
         } catch (IOException ex) {
-            throw new RuntimeException("Something went wrong when loading indexes: " + ex.getMessage());
+            throw new RuntimeException("Something went wrong when loading transactions: " + ex.getMessage());
         }
     }
 
-    private void loadTransactions() {
+    // Files from before the log format are rewritten once, keeping only the latest version of each transaction
+    private void migrateLegacyData() throws IOException {
 
-        try (RandomAccessFile ra = new RandomAccessFile(dataPath.toString(), "r")) {
+        if (!Files.exists(dataPath) || Files.size(dataPath) == 0 || TransactionLog.isLog(dataPath)) return;
 
-            indexedUUIDs.keySet().forEach(id -> {
-                try {
-                    transactions.add(readTransaction(ra, id));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+        Path legacyIdx = idxPath.resolveSibling(idxPath.getFileName() + ".legacy");
+        List<Transaction> legacy = LegacyLedgerFile.read(dataPath, Files.exists(idxPath) ? idxPath : legacyIdx);
+
+        Path migrated = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+        Files.deleteIfExists(migrated);
+        try (TransactionLog target = TransactionLog.open(migrated)) {
+            long recordedAt = System.currentTimeMillis();
+            target.appendAll(legacy.stream().map(t -> LogRecord.put(t, TransactionLog.NO_OFFSET, recordedAt)).toList());
+        }
+
+        // Index is rebuilt from the new log, the old one is only kept until the data file is replaced
+        if (Files.exists(idxPath)) Files.move(idxPath, legacyIdx, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(migrated, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(legacyIdx);
+    }
+
+    // Records carry their ids, so a lost index is recovered by replaying the log
+    private void rebuildIndex() throws IOException {
+
+        Map<UUID, Long> rebuilt = new LinkedHashMap<>();
+        log.scan(0, record -> {
+            if (record.type() == LogRecord.Type.PUT) rebuilt.put(record.id(), record.offset());
+            else rebuilt.remove(record.id());
+            return true;
+        });
+        index.putAll(rebuilt);
+    }
+
+    // Latest versions are read in log order, which is also the order they were last changed in
+    private void loadTransactions() throws IOException {
+
+        long[] offsets = new long[index.size()];
+        int[] count = new int[1];
+        index.forEach((id, offset) -> offsets[count[0]++] = offset);
+        Arrays.sort(offsets, 0, count[0]);
+
+        if (count[0] == 0) return;
+
+        // One pass over the log, archived latest versions come from the live copy and no block is inflated
+        int[] next = new int[1];
+        log.scanLive(offsets[0], record -> {
+            if (record.offset() != offsets[next[0]]) return true;
+            transactions.put(record.id(), record.transaction());
+            if (!record.transaction().isDeleted()) balances.add(record.transaction());
+            lastRecordedAt = Math.max(lastRecordedAt, record.recordedAt());
+            return ++next[0] < count[0];
+        });
+        persistedRecordedAt = lastRecordedAt;
+    }
+
+    private Transaction readLatest(UUID id) {
+
+        try {
+            long offset = index.get(id);
+            return offset == TransactionLog.NO_OFFSET ? null : log.read(offset).transaction();
         } catch (IOException ex) {
-            throw new RuntimeException("Something went wrong when loading transactions: " + ex.getMessage());
+            throw new RuntimeException("Something went wrong when reading transaction: " + ex.getMessage());
+        }
+    }
+
+    private static String manifestName(String username) {
+        return username+"_backup.mf";
+    }
+
+    private void awaitLoaded() {
+
+        try {
+            loading.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) throw cause;
+            throw ex;
         }
     }
 }
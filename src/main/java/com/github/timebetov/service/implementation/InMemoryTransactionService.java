@@ -1,18 +1,50 @@
 package com.github.timebetov.service.implementation;
 
+import com.github.timebetov.models.Budget;
 import com.github.timebetov.models.Transaction;
 import com.github.timebetov.service.TransactionService;
-
+import com.github.timebetov.storage.BudgetCounters;
+import com.github.timebetov.storage.SearchIndex;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public class InMemoryTransactionService implements TransactionService {
 
+    // Undo steps kept for the session, the oldest are dropped beyond this
+    private static final int UNDO_LIMIT = 100;
+
     private final Map<UUID, Transaction> transactions = new LinkedHashMap<>();
     private final String username;
 
+    // Every version in the order it was made, for the ledger as of a past time
+    private final List<Version> history = new ArrayList<>();
+    private final BudgetCounters budgets = BudgetCounters.inMemory(ZoneId.systemDefault());
+    private long lastRecordedAt;
+
+    // Each step is the list of changes one call made, model instances are never modified in place
+    private final Deque<List<Change>> undoHistory = new ArrayDeque<>();
+    private final Deque<List<Change>> redoHistory = new ArrayDeque<>();
+
+    /**
+     * @param before version before the change, null if the change added the transaction
+     * @param after  version after the change, null if the change removed the transaction
+     */
+    private record Change(UUID id, Transaction before, Transaction after) {}
+
+    // @param transaction null once the transaction was removed from the ledger
+    private record Version(long recordedAt, UUID id, Transaction transaction) {}
+
     public InMemoryTransactionService(String username) {
         this.username = username;
     }
@@ -28,7 +60,7 @@ public class InMemoryTransactionService implements TransactionService {
         if (transactions.containsKey(transaction.getId())) {
             throw new IllegalArgumentException("Transaction with ID: " + transaction.getId() + " already exists");
         }
-        transactions.put(transaction.getId(), transaction);
+        commit(List.of(new Change(transaction.getId(), null, transaction)));
     }
 
     @Override
@@ -42,23 +74,29 @@ public class InMemoryTransactionService implements TransactionService {
     @Override
     public void update(String transactionId, Transaction transaction) {
 
-        Transaction toUpdate = getById(transactionId);
-        Transaction.updateTransaction(toUpdate, transaction);
+        Transaction current = getById(transactionId);
+        Transaction updated = current.copy();
+        Transaction.updateTransaction(updated, transaction);
+        commit(List.of(new Change(current.getId(), current, updated)));
     }
 
     @Override
     public void delete(String transactionId) {
-        transactions.get(UUID.fromString(transactionId)).setDeleted(true);
+
+        Transaction current = getById(transactionId);
+        Transaction deleted = current.copy();
+        deleted.setDeleted(true);
+        commit(List.of(new Change(current.getId(), current, deleted)));
     }
 
     @Override
     public void clear(boolean clearAll) {
 
-        if (clearAll)
-            transactions.clear();
-        else {
-            transactions.values().removeIf(Transaction::isDeleted);
-        }
+        List<Change> changes = transactions.values().stream()
+                .filter(t -> clearAll || t.isDeleted())
+                .map(t -> new Change(t.getId(), t, null))
+                .toList();
+        if (!changes.isEmpty()) commit(changes);
     }
 
     @Override
@@ -69,4 +107,112 @@ public class InMemoryTransactionService implements TransactionService {
             throw new IllegalArgumentException("Transaction with ID: " + transactionId + " does not exists");
         return transactions.get(UUID.fromString(transactionId));
     }
+
+    @Override
+    public boolean undo() {
+
+        if (undoHistory.isEmpty()) return false;
+        List<Change> step = undoHistory.pop();
+        List<Change> reverted = new ArrayList<>(step.size());
+        for (int i = step.size() - 1; i >= 0; i--) {
+            Change change = step.get(i);
+            reverted.add(new Change(change.id(), change.after(), change.before()));
+        }
+        apply(reverted);
+        redoHistory.push(step);
+        return true;
+    }
+
+    @Override
+    public boolean redo() {
+
+        if (redoHistory.isEmpty()) return false;
+        List<Change> step = redoHistory.pop();
+        apply(step);
+        pushUndo(step);
+        return true;
+    }
+
+    @Override
+    public List<Transaction> getTransactionsAsOf(Instant time) {
+
+        long asOf = time.toEpochMilli();
+        Map<UUID, Transaction> state = new LinkedHashMap<>();
+        for (Version version : history) {
+            if (version.recordedAt() > asOf) break;
+            if (version.transaction() != null) state.put(version.id(), version.transaction());
+            else state.remove(version.id());
+        }
+        return state.values().stream().filter(t -> !t.isDeleted()).sorted().toList();
+    }
+
+    @Override
+    public List<Transaction> search(String query) {
+
+        List<String> terms = List.of(query.trim().split("\\s+"));
+        if (terms.stream().allMatch(term -> SearchIndex.tokenize(term).isEmpty()))
+            throw new IllegalArgumentException("Search needs at least one word");
+        return getTransactions(false).stream()
+                .filter(t -> matches(SearchIndex.tokenize(t.getDescription()), terms))
+                .toList();
+    }
+
+    @Override
+    public void setBudget(Transaction.Category category, BigDecimal monthlyLimit) {
+        budgets.setLimit(category, monthlyLimit);
+    }
+
+    @Override
+    public Budget getBudget(Transaction.Category category, YearMonth month) {
+        return budgets.budget(category, month);
+    }
+
+    @Override
+    public List<Budget> getBudgets(YearMonth month) {
+        return budgets.budgets(month);
+    }
+
+    private void commit(List<Change> changes) {
+
+        apply(changes);
+        redoHistory.clear();
+        pushUndo(changes);
+    }
+
+    private void pushUndo(List<Change> step) {
+
+        undoHistory.push(step);
+        if (undoHistory.size() > UNDO_LIMIT) undoHistory.removeLast();
+    }
+
+    private void apply(List<Change> changes) {
+
+        long recordedAt = Math.max(lastRecordedAt, System.currentTimeMillis());
+        lastRecordedAt = recordedAt;
+        for (var change : changes) {
+            if (change.after() != null) transactions.put(change.id(), change.after());
+            else transactions.remove(change.id());
+            history.add(new Version(recordedAt, change.id(), change.after()));
+
+            if (change.before() != null && !change.before().isDeleted()) budgets.remove(change.before());
+            if (change.after() != null && !change.after().isDeleted()) budgets.add(change.after());
+        }
+    }
+
+    // Same rules as the search index: every word must be there, a word ending with '*' matches the words it starts
+    private static boolean matches(Set<String> words, List<String> terms) {
+
+        for (String term : terms) {
+            boolean prefix = term.endsWith("*");
+            List<String> tokens = new ArrayList<>(SearchIndex.tokenize(prefix ? term.substring(0, term.length() - 1) : term));
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                boolean found = prefix && i == tokens.size() - 1
+                        ? words.stream().anyMatch(word -> word.startsWith(token))
+                        : words.contains(token);
+                if (!found) return false;
+            }
+        }
+        return true;
+    }
 }
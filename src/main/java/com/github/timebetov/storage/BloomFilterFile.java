@@ -0,0 +1,180 @@
+package com.github.timebetov.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Bloom filter over 64-bit keys in a memory-mapped file. Tells for sure that a key was never added, a key
+ * it reports as present may still be new (about 1% of them at full capacity) and has to be confirmed by the caller.
+ * <pre>
+ * header: [magic:4][version:4][bits:8][hashes:4][entries:8][clean:1] padded to 64 bytes
+ * then bits / 8 bytes of bits
+ * </pre>
+ * Keys can not be removed, a filter that is full or holds too many keys no longer in use is created again
+ * by the caller. Like {@link HashIndexFile} it is marked clean only by {@link #close()}, one left open by a
+ * crash may miss keys and is created again too.
+ * Not thread-safe, one thread owns the filter.
+ */
+public class BloomFilterFile implements Closeable {
+
+    static final int MAGIC = 0x4D574631;                                // "MWF1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private static final int BITS_AT = 8;
+    private static final int HASHES_AT = 16;
+    private static final int ENTRIES_AT = 20;
+    private static final int CLEAN_AT = 28;
+
+    // 10 bits and 7 probes per key give about 0.8% false positives once the filter holds its capacity
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+    private static final long MIN_CAPACITY = 64 * 1024;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long bits;
+    private final int hashes;
+    private long entries;
+    private boolean dirty;
+
+    private BloomFilterFile(FileChannel channel, MappedByteBuffer map) {
+        this.channel = channel;
+        this.map = map;
+        this.bits = map.getLong(BITS_AT);
+        this.hashes = map.getInt(HASHES_AT);
+        this.entries = map.getLong(ENTRIES_AT);
+    }
+
+    /**
+     * Creates an empty filter sized for the number of keys, replacing the file if there is one.
+     */
+    public static BloomFilterFile create(Path path, long capacity) throws IOException {
+
+        long bits = Math.max(capacity, MIN_CAPACITY) * BITS_PER_ENTRY;
+        bits = (bits + 63) & ~63L;
+        if (HEADER_SIZE + bits / 8 > Integer.MAX_VALUE)
+            throw new IOException("Filter can not hold " + capacity + " keys");
+
+        Files.deleteIfExists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + bits / 8);
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putLong(BITS_AT, bits);
+        map.putInt(HASHES_AT, HASHES);
+        map.putLong(ENTRIES_AT, 0);
+        map.put(CLEAN_AT, (byte) 0);
+
+        BloomFilterFile filter = new BloomFilterFile(channel, map);
+        filter.dirty = true;
+        return filter;
+    }
+
+    /**
+     * @throws IOException if the file is not a cleanly closed filter, see {@link #isClean(Path)}
+     */
+    public static BloomFilterFile open(Path path) throws IOException {
+
+        if (!isClean(path)) throw new IOException("Filter was not closed cleanly: " + path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new BloomFilterFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+    }
+
+    /**
+     * @return true if the file is a filter that was closed cleanly, false if it is missing, in another format
+     * or was left open by a crash
+     */
+    public static boolean isClean(Path path) throws IOException {
+
+        if (!Files.exists(path)) return false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+            return header.position() == HEADER_SIZE
+                    && header.getInt(0) == MAGIC
+                    && header.getInt(4) == VERSION
+                    && header.get(CLEAN_AT) == 1
+                    && channel.size() == HEADER_SIZE + header.getLong(BITS_AT) / 8;
+        }
+    }
+
+    /**
+     * @return false if the key was never added, true if it probably was
+     */
+    public boolean mightContain(long key) {
+
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+            if ((map.get(HEADER_SIZE + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) return false;
+        }
+        return true;
+    }
+
+    public void add(long key) {
+
+        markDirty();
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+            int position = HEADER_SIZE + (int) (bit >>> 3);
+            map.put(position, (byte) (map.get(position) | (1 << (bit & 7))));
+        }
+        entries++;
+        map.putLong(ENTRIES_AT, entries);
+    }
+
+    /**
+     * @return keys added, repeated ones counted each time
+     */
+    public long entries() {
+        return entries;
+    }
+
+    /**
+     * @return keys the filter takes before false positives get more frequent than intended
+     */
+    public long capacity() {
+        return bits / BITS_PER_ENTRY;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (dirty) {
+            map.put(CLEAN_AT, (byte) 1);
+            map.force();
+            dirty = false;
+        }
+        channel.close();
+    }
+
+    // Marks the file as not clean before the first change, so a crash after it is noticed on next open
+    private void markDirty() {
+
+        if (dirty) return;
+        map.put(CLEAN_AT, (byte) 0);
+        map.force(0, HEADER_SIZE);
+        dirty = true;
+    }
+
+    // murmur3 finalizer, the two probe hashes are derived from the key by it
+    private static long mix(long h) {
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
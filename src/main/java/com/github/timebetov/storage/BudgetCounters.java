@@ -0,0 +1,245 @@
+package com.github.timebetov.storage;
+
+import com.github.timebetov.models.Budget;
+import com.github.timebetov.models.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Monthly spending limits per category, and what the expenses of each category add up to per month. Counters
+ * are kept up to date on every change of the ledger, so checking a budget never goes over the transactions.
+ * <pre>
+ * file: [magic:4][version:4][logLength:8][zone:UTF]
+ *       [limits:4] then per limit [category:UTF][cents:8]
+ *       [counters:4] then per counter [category:UTF][year:4][month:4][cents:8]
+ * </pre>
+ * The file is replaced as a whole. Counters are saved on close stamped with the length of the log they
+ * count, a file whose stamp or time zone does not match the log is recounted by the caller (see
+ * {@link #isCurrent()}); limits are kept either way. Months are taken in the time zone the counters use.
+ * Not thread-safe, one thread owns the counters.
+ */
+public class BudgetCounters {
+
+    static final int MAGIC = 0x4D574731;                                // "MWG1"
+    static final int VERSION = 1;
+
+    // Stamp of a file saved when the counters may not match the log, e.g. after a limit changed
+    private static final long NOT_COUNTED = -1;
+
+    private final Path path;
+    private final ZoneId zone;
+    private final Map<Transaction.Category, Long> limits = new EnumMap<>(Transaction.Category.class);
+    private final Map<Transaction.Category, Map<YearMonth, Long>> spent = new EnumMap<>(Transaction.Category.class);
+    private boolean current;
+
+    private BudgetCounters(Path path, ZoneId zone) {
+        this.path = path;
+        this.zone = zone;
+    }
+
+    /**
+     * @return counters without a file, for a ledger kept in memory; they are never saved
+     */
+    public static BudgetCounters inMemory(ZoneId zone) {
+
+        BudgetCounters counters = new BudgetCounters(null, zone);
+        counters.current = true;
+        return counters;
+    }
+
+    /**
+     * @param logLength length of the log now, counters saved at another length are dropped
+     */
+    public static BudgetCounters open(Path path, long logLength, ZoneId zone) throws IOException {
+
+        BudgetCounters counters = new BudgetCounters(path, zone);
+        if (!Files.exists(path)) return counters;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a budget file: " + path);
+            long stamp = in.readLong();
+            String savedZone = in.readUTF();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Transaction.Category category = category(in.readUTF());
+                long cents = in.readLong();
+                if (category != null) counters.limits.put(category, cents);
+            }
+
+            counters.current = stamp == logLength && savedZone.equals(zone.getId());
+            if (!counters.current) return counters;
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Transaction.Category category = category(in.readUTF());
+                YearMonth month = YearMonth.of(in.readInt(), in.readInt());
+                long cents = in.readLong();
+                if (category != null) counters.spent.computeIfAbsent(category, c -> new HashMap<>()).put(month, cents);
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Keeps the limits of the file and drops its counters, for a log that was replaced, e.g. restored from a backup.
+     */
+    public static void dropCounters(Path path, ZoneId zone) throws IOException {
+
+        // No log has this length, so no counters are read
+        if (Files.exists(path)) open(path, Long.MIN_VALUE, zone).saveLimits();
+    }
+
+    /**
+     * @return true if the counters were read from the file, false if they have to be counted with {@link #recount}
+     */
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * Counts the transactions (not deleted) again, replacing what the counters held.
+     */
+    public void recount(Collection<Transaction> transactions) {
+
+        spent.clear();
+        for (var transaction : transactions) {
+            if (!transaction.isDeleted()) add(transaction);
+        }
+        current = true;
+    }
+
+    public void add(Transaction transaction) {
+        count(transaction, 1);
+    }
+
+    public void remove(Transaction transaction) {
+        count(transaction, -1);
+    }
+
+    /**
+     * Sets the limit of the category, {@link #saveLimits()} puts it on the disk.
+     *
+     * @param limit most to spend a month, null removes the budget of the category
+     */
+    public void setLimit(Transaction.Category category, BigDecimal limit) {
+
+        if (limit == null) limits.remove(category);
+        else limits.put(category, cents(limit));
+    }
+
+    /**
+     * Replaces the file with the limits set so far, the counters in it are not trusted when it is opened next.
+     */
+    public void saveLimits() throws IOException {
+        save(NOT_COUNTED);
+    }
+
+    /**
+     * @return budget of the category in the month, null if the category has no limit
+     */
+    public Budget budget(Transaction.Category category, YearMonth month) {
+
+        Long limit = limits.get(category);
+        if (limit == null) return null;
+        long cents = spent.getOrDefault(category, Map.of()).getOrDefault(month, 0L);
+        return new Budget(category, month, BigDecimal.valueOf(limit, 2), BigDecimal.valueOf(cents, 2));
+    }
+
+    /**
+     * @return budgets of all categories with a limit, in category order
+     */
+    public List<Budget> budgets(YearMonth month) {
+
+        List<Budget> budgets = new ArrayList<>(limits.size());
+        for (var category : limits.keySet()) budgets.add(budget(category, month));
+        return budgets;
+    }
+
+    public YearMonth monthOf(Instant time) {
+        return YearMonth.from(time.atZone(zone));
+    }
+
+    /**
+     * Replaces the file with the limits and counters.
+     *
+     * @param logLength length of the log the counters match
+     */
+    public void save(long logLength) throws IOException {
+
+        if (path == null) throw new IllegalStateException("Counters kept in memory are not saved");
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(logLength);
+            out.writeUTF(zone.getId());
+
+            out.writeInt(limits.size());
+            for (var limit : limits.entrySet()) {
+                out.writeUTF(limit.getKey().name());
+                out.writeLong(limit.getValue());
+            }
+
+            int count = spent.values().stream().mapToInt(Map::size).sum();
+            out.writeInt(count);
+            for (var category : spent.entrySet()) {
+                for (var month : category.getValue().entrySet()) {
+                    out.writeUTF(category.getKey().name());
+                    out.writeInt(month.getKey().getYear());
+                    out.writeInt(month.getKey().getMonthValue());
+                    out.writeLong(month.getValue());
+                }
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Only expenses use up a budget
+    private void count(Transaction transaction, int sign) {
+
+        if (transaction.getType() != Transaction.TransactionType.EXPENSE) return;
+        long cents = cents(transaction.getAmount()) * sign;
+        spent.computeIfAbsent(transaction.getCategory(), c -> new HashMap<>())
+                .merge(monthOf(transaction.getTransactionTime()), cents, Long::sum);
+    }
+
+    // Amounts are kept to the cent like transactions, whatever scale they come with
+    private static long cents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    // Categories no longer known are skipped
+    private static Transaction.Category category(String name) {
+
+        try {
+            return Transaction.Category.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.timebetov.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Snapshot of the index taken along the log, so the ledger as of a time after it is rebuilt from the snapshot
+ * plus the records written after it, not from the beginning of the log.
+ * <pre>
+ * checkpoint: [logOffset:8][recordedAt:8][count:4] then count x [most:8][least:8][offset:8]
+ * </pre>
+ * Snapshots are appended one after another and forced. Once there are {@link #MAX_CHECKPOINTS} of them the file is
+ * rewritten with {@link #KEPT_CHECKPOINTS}, thinned so they are spaced geometrically back from the latest: a time
+ * in the past finds a snapshot within a bounded share of its distance from now, and the file stays a few indexes
+ * in size.
+ */
+public class CheckpointFile {
+
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+    private static final int ENTRY_SIZE = 24;
+
+    // The file is thinned to the kept snapshots when it holds the most, the latest and the oldest always stay
+    static final int MAX_CHECKPOINTS = 16;
+    static final int KEPT_CHECKPOINTS = 8;
+
+    /**
+     * @param logOffset  log position the snapshot was taken at, replay continues from here
+     * @param recordedAt time of the last record before the snapshot
+     * @param index      id to offset of the latest version as of the snapshot
+     */
+    public record Checkpoint(long logOffset, long recordedAt, Map<UUID, Long> index) {}
+
+    // Where each complete snapshot starts in the file, in the order they were taken
+    private record Header(long position, long logOffset, long recordedAt, int count) {
+
+        long end() {
+            return position + HEADER_SIZE + (long) count * ENTRY_SIZE;
+        }
+    }
+
+    private final Path path;
+    private final List<Header> headers = new ArrayList<>();
+
+    private CheckpointFile(Path path) {
+        this.path = path;
+    }
+
+    public static CheckpointFile open(Path path) throws IOException {
+
+        CheckpointFile file = new CheckpointFile(path);
+        if (!Files.exists(path)) Files.createFile(path);
+        file.readHeaders();
+        return file;
+    }
+
+    /**
+     * @return log position of the latest checkpoint, {@link TransactionLog#NO_OFFSET} if there is none
+     */
+    public long lastLogOffset() {
+        return headers.isEmpty() ? TransactionLog.NO_OFFSET : headers.get(headers.size() - 1).logOffset();
+    }
+
+    /**
+     * Appends a snapshot of the index and forces it to the disk, a snapshot cut short by a crash is overwritten.
+     */
+    public void add(long logOffset, long recordedAt, TransactionIndex index) throws IOException {
+
+        long position = headers.isEmpty() ? 0 : headers.get(headers.size() - 1).end();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(position);
+            channel.position(position);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeLong(logOffset);
+            out.writeLong(recordedAt);
+            out.writeInt(index.size());
+            IOException[] failure = new IOException[1];
+            index.forEach((id, offset) -> {
+                try {
+                    out.writeLong(id.getMostSignificantBits());
+                    out.writeLong(id.getLeastSignificantBits());
+                    out.writeLong(offset);
+                } catch (IOException ex) {
+                    failure[0] = ex;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            out.flush();
+            channel.force(false);
+        }
+        headers.add(new Header(position, logOffset, recordedAt, index.size()));
+        if (headers.size() >= MAX_CHECKPOINTS) thin();
+    }
+
+    /**
+     * @return the latest checkpoint taken at or before the given time, null if there is none
+     */
+    public Checkpoint latestAtOrBefore(long time) throws IOException {
+
+        Header found = null;
+        for (Header header : headers) {
+            if (header.recordedAt() > time) break;
+            found = header;
+        }
+        if (found == null) return null;
+
+        Map<UUID, Long> index = new LinkedHashMap<>((int) (found.count() / 0.75f) + 1);
+        try (RandomAccessFile ra = new RandomAccessFile(path.toString(), "r")) {
+            byte[] entries = new byte[found.count() * ENTRY_SIZE];
+            ra.seek(found.position() + HEADER_SIZE);
+            ra.readFully(entries);
+            ByteBuffer buffer = ByteBuffer.wrap(entries);
+            while (buffer.hasRemaining()) {
+                index.put(new UUID(buffer.getLong(), buffer.getLong()), buffer.getLong());
+            }
+        }
+        return new Checkpoint(found.logOffset(), found.recordedAt(), index);
+    }
+
+    /**
+     * Drops snapshots down to {@link #KEPT_CHECKPOINTS}. Each round drops the one whose neighbours are closest
+     * relative to how far back they are, so the gaps grow with the distance from the latest snapshot. The kept
+     * snapshots go to a temp file that is forced and moved over this one.
+     */
+    private void thin() throws IOException {
+
+        List<Header> kept = new ArrayList<>(headers);
+        while (kept.size() > KEPT_CHECKPOINTS) {
+            long latest = kept.get(kept.size() - 1).logOffset();
+            int drop = 1;
+            double closest = Double.MAX_VALUE;
+            for (int i = 1; i < kept.size() - 1; i++) {
+                long older = kept.get(i - 1).logOffset();
+                double gap = (double) (kept.get(i + 1).logOffset() - older) / (latest - older);
+                if (gap < closest) {
+                    closest = gap;
+                    drop = i;
+                }
+            }
+            kept.remove(drop);
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        List<Header> moved = new ArrayList<>(kept.size());
+        try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Header header : kept) {
+                long position = target.position();
+                long length = header.end() - header.position();
+                for (long copied = 0; copied < length; ) {
+                    long step = source.transferTo(header.position() + copied, length - copied, target);
+                    if (step <= 0) throw new IOException("Checkpoint file ends inside a snapshot: " + path);
+                    copied += step;
+                }
+                target.position(position + length);
+                moved.add(new Header(position, header.logOffset(), header.recordedAt(), header.count()));
+            }
+            target.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        headers.clear();
+        headers.addAll(moved);
+    }
+
+    // Entries are skipped, only the fixed-size headers are read
+    private void readHeaders() throws IOException {
+
+        try (RandomAccessFile ra = new RandomAccessFile(path.toString(), "r")) {
+            long position = 0;
+            while (position + HEADER_SIZE <= ra.length()) {
+                ra.seek(position);
+                Header header = new Header(position, ra.readLong(), ra.readLong(), ra.readInt());
+                if (header.end() > ra.length()) return;                     // cut short by a crash
+                headers.add(header);
+                position = header.end();
+            }
+        }
+    }
+}
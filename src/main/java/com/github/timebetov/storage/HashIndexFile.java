@@ -0,0 +1,380 @@
+package com.github.timebetov.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Index stored as an open-addressing hash table in a memory-mapped file, the entries are not kept on the heap.
+ * <pre>
+ * header: [magic:4][version:4][capacity:8][size:8][used:8][clean:1] padded to 64 bytes
+ * slot:   [most:8][least:8][offset:8], capacity (a power of two) of them
+ * </pre>
+ * Slots are found by linear probing on the two id longs and updated in place. Offset 0 marks an empty slot
+ * (no record starts inside the log header), {@link #TOMBSTONE} a removed one.
+ * <p>
+ * When the table gets too full a larger one is created next to it and every later change moves a few slots
+ * over, so no single call pays for the whole resize. Lookups try the new table first, then the old one.
+ * <p>
+ * Writes go through the mapping and are not flushed one by one. The file is marked clean only by {@link #close()},
+ * one that was not closed cleanly can not be trusted and is rebuilt from the log by the caller.
+ * Not thread-safe, one thread owns the index.
+ */
+public class HashIndexFile implements TransactionIndex {
+
+    static final int MAGIC = 0x4D574831;                                // "MWH1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_SIZE = 24;
+
+    private static final int CAPACITY_AT = 8;
+    private static final int SIZE_AT = 16;
+    private static final int USED_AT = 24;
+    private static final int CLEAN_AT = 32;
+
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -2;
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_LOAD_PERCENT = 70;
+
+    // Least old slots moved per change while resizing
+    private static final int MIGRATION_STEP = 64;
+
+    private final Path path;
+    private final Path resizePath;
+    private Table table;
+    private Table old;
+    private int migrated;
+    private int migrationStep;
+    private boolean dirty;
+
+    private HashIndexFile(Path path, Table table) {
+        this.path = path;
+        this.resizePath = resizePath(path);
+        this.table = table;
+    }
+
+    /**
+     * Opens a cleanly closed index, or creates an empty one if the file is missing.
+     *
+     * @throws IOException if the file is there but not a cleanly closed index, see {@link #isClean(Path)}
+     */
+    public static HashIndexFile open(Path path) throws IOException {
+
+        Files.deleteIfExists(resizePath(path));
+        if (!Files.exists(path)) {
+            HashIndexFile index = new HashIndexFile(path, Table.create(path, MIN_CAPACITY));
+            index.dirty = true;
+            return index;
+        }
+        if (!isClean(path)) throw new IOException("Index was not closed cleanly: " + path);
+        return new HashIndexFile(path, Table.open(path));
+    }
+
+    /**
+     * @return true if the file is an index that was closed cleanly, false if it is missing, in another format
+     * or was left open by a crash
+     */
+    public static boolean isClean(Path path) throws IOException {
+
+        if (!Files.exists(path)) return false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+            return header.position() == HEADER_SIZE
+                    && header.getInt(0) == MAGIC
+                    && header.getInt(4) == VERSION
+                    && header.get(CLEAN_AT) == 1
+                    && channel.size() == HEADER_SIZE + header.getLong(CAPACITY_AT) * SLOT_SIZE;
+        }
+    }
+
+    @Override
+    public long get(UUID id) {
+
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        long offset = table.get(msb, lsb);
+        if (offset == TransactionLog.NO_OFFSET && old != null) offset = old.get(msb, lsb);
+        return offset;
+    }
+
+    @Override
+    public void put(UUID id, long offset) throws IOException {
+
+        markDirty();
+        makeRoom();
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        if (old != null) old.remove(msb, lsb);
+        table.put(msb, lsb, offset);
+        migrateStep();
+    }
+
+    @Override
+    public void putAll(Map<UUID, Long> entries) throws IOException {
+
+        for (var entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<UUID> ids) throws IOException {
+
+        markDirty();
+        for (UUID id : ids) {
+            long msb = id.getMostSignificantBits();
+            long lsb = id.getLeastSignificantBits();
+            table.remove(msb, lsb);
+            if (old != null) old.remove(msb, lsb);
+            migrateStep();
+        }
+    }
+
+    @Override
+    public int size() {
+        return table.size + (old != null ? old.size : 0);
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+
+        table.forEach(visitor);
+        if (old != null) old.forEach(visitor);
+    }
+
+    @Override
+    public void flush() {
+        // Slots are written through the mapping, the page cache already has them
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        while (old != null) migrateStep();
+        if (dirty) {
+            table.map.put(CLEAN_AT, (byte) 1);
+            table.map.force();
+            dirty = false;
+        }
+        table.close();
+    }
+
+    // Marks the file as not clean before the first change, so a crash after it is noticed on next open
+    private void markDirty() {
+
+        if (dirty) return;
+        table.map.put(CLEAN_AT, (byte) 0);
+        table.map.force(0, HEADER_SIZE);
+        dirty = true;
+    }
+
+    private void makeRoom() throws IOException {
+
+        if (!table.isFull()) return;
+
+        // Safety net, moving normally ends before the new table fills up
+        while (old != null) migrateStep();
+        if (!table.isFull()) return;
+
+        old = table;
+        migrated = 0;
+        table = Table.create(resizePath, capacityFor(old.size + 1));
+
+        // The new table takes at least capacity * 35% inserts before it is full, moving has to be done by then
+        migrationStep = (int) Math.max(MIGRATION_STEP, old.capacity * 100L / (table.capacity * 35L) + 1);
+    }
+
+    private void migrateStep() throws IOException {
+
+        if (old == null) return;
+        int end = (int) Math.min((long) migrated + migrationStep, old.capacity);
+        for (int slot = migrated; slot < end; slot++) {
+            long offset = old.offsetAt(slot);
+            if (offset == EMPTY || offset == TOMBSTONE) continue;
+            table.put(old.mostAt(slot), old.leastAt(slot), offset);
+            old.removeAt(slot);
+        }
+        migrated = end;
+
+        if (migrated == old.capacity) {
+            old.close();
+            Files.move(resizePath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            old = null;
+        }
+    }
+
+    // Leaves the new table at most half as full as the limit, so it takes as many inserts as it holds
+    private static int capacityFor(int entries) throws IOException {
+
+        long capacity = MIN_CAPACITY;
+        while (entries * 200L > capacity * MAX_LOAD_PERCENT) capacity <<= 1;
+        if (HEADER_SIZE + capacity * SLOT_SIZE > Integer.MAX_VALUE)
+            throw new IOException("Index can not grow beyond " + entries + " entries");
+        return (int) capacity;
+    }
+
+    private static Path resizePath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".resize");
+    }
+
+    private static int hash(long msb, long lsb) {
+
+        // Version 7 ids share their high bits within a millisecond, mixing spreads them (murmur3 finalizer)
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static final class Table implements Closeable {
+
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        final int capacity;
+        final int mask;
+        int size;
+        int used;                                                   // live and removed slots, probing stops at neither
+
+        private Table(FileChannel channel, MappedByteBuffer map) {
+            this.channel = channel;
+            this.map = map;
+            this.capacity = (int) map.getLong(CAPACITY_AT);
+            this.mask = capacity - 1;
+            this.size = (int) map.getLong(SIZE_AT);
+            this.used = (int) map.getLong(USED_AT);
+        }
+
+        static Table create(Path path, int capacity) throws IOException {
+
+            Files.deleteIfExists(path);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putLong(CAPACITY_AT, capacity);
+            map.putLong(SIZE_AT, 0);
+            map.putLong(USED_AT, 0);
+            map.put(CLEAN_AT, (byte) 0);
+            return new Table(channel, map);
+        }
+
+        static Table open(Path path) throws IOException {
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Table(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        boolean isFull() {
+            return (used + 1L) * 100 > (long) capacity * MAX_LOAD_PERCENT;
+        }
+
+        long get(long msb, long lsb) {
+
+            int slot = find(msb, lsb);
+            return slot < 0 ? TransactionLog.NO_OFFSET : offsetAt(slot);
+        }
+
+        void put(long msb, long lsb, long offset) {
+
+            int slot = hash(msb, lsb) & mask;
+            int free = -1;
+            while (true) {
+                long current = offsetAt(slot);
+                if (current == EMPTY) break;
+                if (current == TOMBSTONE) {
+                    if (free < 0) free = slot;
+                } else if (mostAt(slot) == msb && leastAt(slot) == lsb) {
+                    map.putLong(position(slot) + 16, offset);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // New id: reuse the first removed slot on the way, or take the empty one
+            if (free < 0) {
+                free = slot;
+                used++;
+            }
+            int position = position(free);
+            map.putLong(position, msb);
+            map.putLong(position + 8, lsb);
+            map.putLong(position + 16, offset);
+            size++;
+            writeCounts();
+        }
+
+        void remove(long msb, long lsb) {
+
+            int slot = find(msb, lsb);
+            if (slot >= 0) removeAt(slot);
+        }
+
+        void removeAt(int slot) {
+
+            map.putLong(position(slot) + 16, TOMBSTONE);
+            size--;
+            writeCounts();
+        }
+
+        void forEach(EntryVisitor visitor) {
+
+            for (int slot = 0; slot < capacity; slot++) {
+                long offset = offsetAt(slot);
+                if (offset != EMPTY && offset != TOMBSTONE) visitor.visit(new UUID(mostAt(slot), leastAt(slot)), offset);
+            }
+        }
+
+        long mostAt(int slot) {
+            return map.getLong(position(slot));
+        }
+
+        long leastAt(int slot) {
+            return map.getLong(position(slot) + 8);
+        }
+
+        long offsetAt(int slot) {
+            return map.getLong(position(slot) + 16);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private int find(long msb, long lsb) {
+
+            int slot = hash(msb, lsb) & mask;
+            while (true) {
+                long offset = offsetAt(slot);
+                if (offset == EMPTY) return -1;
+                if (offset != TOMBSTONE && mostAt(slot) == msb && leastAt(slot) == lsb) return slot;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void writeCounts() {
+
+            map.putLong(SIZE_AT, size);
+            map.putLong(USED_AT, used);
+        }
+
+        private static int position(int slot) {
+            return HEADER_SIZE + slot * SLOT_SIZE;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.timebetov.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental copy of the append-only files of a ledger. A manifest next to the copies keeps how many bytes
+ * of each file they hold, the next backup only sends what was appended since, straight from file to file
+ * with {@link FileChannel#transferTo}.
+ * <pre>
+ * manifest: [magic:4][version:4][files:4] then per file [name:UTF][generation:8][length:8]
+ * </pre>
+ * A file whose generation changed (the log after it was archived) or that got shorter is copied again
+ * from its start. The manifest is replaced only after the copies are on the disk, bytes a failed backup
+ * added past the lengths it lists are ignored and overwritten next time.
+ */
+public class LedgerBackup implements Closeable {
+
+    static final int MAGIC = 0x4D574231;                                // "MWB1"
+    static final int VERSION = 1;
+
+    /**
+     * @param generation tells apart files rewritten under the same name, copies of another generation are dropped
+     */
+    public record Entry(String name, long generation, long length) {}
+
+    private record Source(FileChannel channel, Entry entry) {}
+
+    private final List<Source> sources = new ArrayList<>();
+
+    /**
+     * Takes the current end of the files, opened right away so they are copied as they are now even if one is
+     * replaced later. Bytes appended after this call are left for the next backup.
+     *
+     * @param files       files to back up, by the name their copies get
+     * @param generations generation of each file, files not in the map have generation 0
+     */
+    public static LedgerBackup snapshot(Map<String, Path> files, Map<String, Long> generations) throws IOException {
+
+        LedgerBackup backup = new LedgerBackup();
+        try {
+            for (var file : files.entrySet()) {
+                FileChannel channel = FileChannel.open(file.getValue(), StandardOpenOption.READ);
+                backup.sources.add(new Source(channel,
+                        new Entry(file.getKey(), generations.getOrDefault(file.getKey(), 0L), channel.size())));
+            }
+        } catch (IOException ex) {
+            backup.close();
+            throw ex;
+        }
+        return backup;
+    }
+
+    /**
+     * Brings the copies in the directory up to the snapshot.
+     *
+     * @param manifestName file name of the manifest in the directory
+     * @return bytes copied
+     */
+    public long copyTo(Path dir, String manifestName) throws IOException {
+
+        Files.createDirectories(dir);
+        Map<String, Entry> copied = readManifest(dir.resolve(manifestName));
+
+        long bytes = 0;
+        List<Entry> entries = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            Entry entry = source.entry();
+            Entry previous = copied.get(entry.name());
+            long from = previous != null && previous.generation() == entry.generation() && previous.length() <= entry.length()
+                    ? previous.length() : 0;
+
+            try (FileChannel target = FileChannel.open(dir.resolve(entry.name()),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Copy is missing bytes the manifest lists, it is not trusted
+                if (target.size() < from) from = 0;
+                target.truncate(from);
+                long position = from;
+                while (position < entry.length()) {
+                    position += source.channel().transferTo(position, entry.length() - position, target.position(position));
+                }
+                target.force(false);
+            }
+            bytes += entry.length() - from;
+            entries.add(entry);
+        }
+        writeManifest(dir.resolve(manifestName), entries);
+        return bytes;
+    }
+
+    /**
+     * Copies the backed up files into the directory, replacing the ones there.
+     *
+     * @return names of the restored files
+     */
+    public static List<String> restore(Path backupDir, String manifestName, Path dataDir) throws IOException {
+
+        Map<String, Entry> copied = readManifest(backupDir.resolve(manifestName));
+        if (copied.isEmpty()) throw new IOException("No backup in " + backupDir);
+
+        Files.createDirectories(dataDir);
+        for (Entry entry : copied.values()) {
+            Path tmp = dataDir.resolve(entry.name() + ".tmp");
+            try (FileChannel source = FileChannel.open(backupDir.resolve(entry.name()), StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (source.size() < entry.length()) throw new IOException("Backup of " + entry.name() + " is cut short");
+                long position = 0;
+                while (position < entry.length()) {
+                    position += source.transferTo(position, entry.length() - position, target);
+                }
+                target.force(false);
+            }
+            Files.move(tmp, dataDir.resolve(entry.name()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return List.copyOf(copied.keySet());
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        IOException failure = null;
+        for (Source source : sources) {
+            try {
+                source.channel().close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static Map<String, Entry> readManifest(Path path) throws IOException {
+
+        Map<String, Entry> entries = new HashMap<>();
+        if (!Files.exists(path)) return entries;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a backup manifest: " + path);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong());
+                entries.put(entry.name(), entry);
+            }
+        }
+        return entries;
+    }
+
+    private static void writeManifest(Path path, List<Entry> entries) throws IOException {
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.name());
+                out.writeLong(entry.generation());
+                out.writeLong(entry.length());
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
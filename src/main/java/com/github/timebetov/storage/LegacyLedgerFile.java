@@ -0,0 +1,63 @@
+package com.github.timebetov.storage;
+
+import com.github.timebetov.models.Transaction;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reader for data files written before the {@link TransactionLog} format, where records had no id and no history
+ * and only the index knew which record belongs to which transaction.
+ */
+public class LegacyLedgerFile {
+
+    private LegacyLedgerFile() {}
+
+    /**
+     * @return latest version of every indexed transaction, in index order
+     */
+    public static List<Transaction> read(Path dataPath, Path idxPath) throws IOException {
+
+        Map<UUID, Long> index = MapIndexFile.read(idxPath);
+        List<Transaction> transactions = new ArrayList<>(index.size());
+        try (RandomAccessFile ra = new RandomAccessFile(dataPath.toString(), "r")) {
+            for (var entry : index.entrySet()) {
+                transactions.add(readTransaction(ra, entry.getKey(), entry.getValue()));
+            }
+        }
+        return transactions;
+    }
+
+    private static Transaction readTransaction(RandomAccessFile ra, UUID id, long positionInFile) throws IOException {
+
+        ra.seek(positionInFile);
+
+        boolean isDeleted = ra.readBoolean();
+        var type = Transaction.TransactionType.valueOf(ra.readUTF());
+        var category = Transaction.Category.valueOf(ra.readUTF());
+
+        // Reading amount (BigDecimal)
+        int scale = ra.readInt();
+        int lengthOfBytes = ra.readInt();
+        byte[] unscaledBytes = new byte[lengthOfBytes];
+        ra.readFully(unscaledBytes);
+
+        BigInteger unscaled = new BigInteger(unscaledBytes);
+        BigDecimal amount = new BigDecimal(unscaled, scale);
+
+        String description = ra.readUTF();
+        Instant transactionTime = Instant.ofEpochMilli(ra.readLong());
+
+        Transaction transaction = new Transaction(id, type, category, amount, description, transactionTime);
+        transaction.setDeleted(isDeleted);
+        return transaction;
+    }
+}
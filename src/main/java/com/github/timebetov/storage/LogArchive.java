@@ -0,0 +1,329 @@
+package com.github.timebetov.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold part of a {@link TransactionLog}: the bytes of its oldest records, moved out of the log file into
+ * {@link Deflater} compressed blocks. Records keep their log offsets, indexes and checkpoints still point at them.
+ * <pre>
+ * blocks: [magic:4] then the compressed blocks one after another
+ * index:  [magic:4] then per block [firstOffset:8][rawLength:4][position:8][compressedLength:4]
+ *                                  [records:4][firstRecordedAt:8][lastRecordedAt:8]
+ * </pre>
+ * A block holds whole records, so any record is read from one block. Blocks are inflated only when a read
+ * reaches them and the last few are kept, the index of all blocks is small enough to stay in memory.
+ * <p>
+ * Blocks are forced before the index entries that make them visible are written, a block or entry cut short
+ * by a crash is dropped on open. Thread-safe, readers of the log may read while the writer archives.
+ */
+public class LogArchive implements Closeable {
+
+    static final int BLOCKS_MAGIC = 0x4D574131;                         // "MWA1"
+    static final int INDEX_MAGIC = 0x4D574931;                          // "MWI1"
+    static final int ENTRY_SIZE = 8 + 4 + 8 + 4 + 4 + 8 + 8;
+
+    // Raw bytes per block, compresses nearly as well as larger ones and inflates fast enough for a single record
+    public static final int BLOCK_SIZE = 32 * 1024;
+
+    private static final int CACHED_BLOCKS = 8;
+
+    /**
+     * @param firstOffset log offset of the first record in the block
+     * @param position    where the compressed bytes start in the blocks file
+     */
+    public record Block(long firstOffset, int rawLength, long position, int compressedLength,
+                        int records, long firstRecordedAt, long lastRecordedAt) {
+
+        public long endOffset() {
+            return firstOffset + rawLength;
+        }
+    }
+
+    private final FileChannel blocksChannel;
+    private final FileChannel indexChannel;
+    private final List<Block> blocks = new ArrayList<>();
+    private final List<Block> pending = new ArrayList<>();
+    private long blocksLength;
+    private long indexLength;
+
+    // Recently inflated blocks by number, least recently used first
+    private final Map<Integer, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    private LogArchive(FileChannel blocksChannel, FileChannel indexChannel) {
+        this.blocksChannel = blocksChannel;
+        this.indexChannel = indexChannel;
+    }
+
+    /**
+     * Opens the archive, missing files are created empty.
+     */
+    public static LogArchive open(Path blocksPath, Path indexPath) throws IOException {
+
+        FileChannel blocksChannel = FileChannel.open(blocksPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel;
+        try {
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException ex) {
+            blocksChannel.close();
+            throw ex;
+        }
+
+        LogArchive archive = new LogArchive(blocksChannel, indexChannel);
+        try {
+            archive.load(blocksPath, indexPath);
+        } catch (IOException ex) {
+            archive.close();
+            throw ex;
+        }
+        return archive;
+    }
+
+    /**
+     * @return log offset right after the last archived record, 0 if nothing is archived
+     */
+    public synchronized long end() {
+        return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).endOffset();
+    }
+
+    public synchronized List<Block> blocks() {
+        return List.copyOf(blocks);
+    }
+
+    /**
+     * @return bytes the archive takes on disk
+     */
+    public synchronized long size() {
+        return blocksLength + indexLength + (long) pending.size() * ENTRY_SIZE;
+    }
+
+    /**
+     * Compresses records taken from the log and adds them as the next block, visible to reads right away
+     * but only kept over a crash once {@link #force()} returns.
+     *
+     * @param firstOffset log offset of raw[0], must be where the archive ends unless it is empty
+     */
+    public synchronized void append(long firstOffset, byte[] raw, int rawLength, int records,
+                                    long firstRecordedAt, long lastRecordedAt) throws IOException {
+
+        if (!blocks.isEmpty() && firstOffset != end())
+            throw new IllegalArgumentException("Block at " + firstOffset + " does not follow the archive end " + end());
+
+        Deflater deflater = new Deflater();
+        byte[] compressed;
+        int compressedLength = 0;
+        try {
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            compressed = new byte[rawLength + rawLength / 100 + 64];
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        write(blocksChannel, ByteBuffer.wrap(compressed, 0, compressedLength), blocksLength);
+        Block block = new Block(firstOffset, rawLength, blocksLength, compressedLength, records, firstRecordedAt, lastRecordedAt);
+        blocksLength += compressedLength;
+        blocks.add(block);
+        pending.add(block);
+    }
+
+    /**
+     * Puts appended blocks on the disk, then the index entries that point to them.
+     */
+    public synchronized void force() throws IOException {
+
+        if (pending.isEmpty()) return;
+        blocksChannel.force(false);
+
+        ByteBuffer entries = ByteBuffer.allocate(pending.size() * ENTRY_SIZE);
+        for (Block block : pending) {
+            entries.putLong(block.firstOffset()).putInt(block.rawLength())
+                    .putLong(block.position()).putInt(block.compressedLength())
+                    .putInt(block.records()).putLong(block.firstRecordedAt()).putLong(block.lastRecordedAt());
+        }
+        write(indexChannel, entries.flip(), indexLength);
+        indexLength += (long) pending.size() * ENTRY_SIZE;
+        indexChannel.force(false);
+        pending.clear();
+    }
+
+    /**
+     * Fills the buffer with archived bytes starting at the log offset, inflating the block that holds them if needed.
+     */
+    public synchronized void read(ByteBuffer buffer, long offset) throws IOException {
+
+        int number = blockAt(offset);
+        if (number < 0) throw new EOFException("Offset " + offset + " is not archived");
+        Block block = blocks.get(number);
+        int from = (int) (offset - block.firstOffset());
+        if (from + buffer.remaining() > block.rawLength())
+            throw new EOFException("Record at " + offset + " is cut short");
+        buffer.put(inflate(number), from, buffer.remaining());
+    }
+
+    /**
+     * @return archived bytes from the log offset 'from' up to 'to', blocks are inflated as the stream reaches them
+     */
+    public InputStream stream(long from, long to) {
+
+        return new InputStream() {
+            private long offset = from;
+            private byte[] block;
+            private long blockStart;
+
+            @Override
+            public int read() throws IOException {
+
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] target, int at, int length) throws IOException {
+
+                if (offset >= to) return -1;
+                if (block == null || offset >= blockStart + block.length) {
+                    synchronized (LogArchive.this) {
+                        int number = blockAt(offset);
+                        if (number < 0) throw new EOFException("Offset " + offset + " is not archived");
+                        block = inflate(number);
+                        blockStart = blocks.get(number).firstOffset();
+                    }
+                }
+                int count = (int) Math.min(length, Math.min(blockStart + block.length, to) - offset);
+                System.arraycopy(block, (int) (offset - blockStart), target, at, count);
+                offset += count;
+                return count;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        try {
+            force();
+        } finally {
+            try {
+                blocksChannel.close();
+            } finally {
+                indexChannel.close();
+            }
+        }
+    }
+
+    // @return number of the block holding the offset, -1 if it is not archived
+    private int blockAt(long offset) {
+
+        int low = 0, high = blocks.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Block block = blocks.get(middle);
+            if (offset < block.firstOffset()) high = middle - 1;
+            else if (offset >= block.endOffset()) low = middle + 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    private byte[] inflate(int number) throws IOException {
+
+        byte[] raw = cache.get(number);
+        if (raw != null) return raw;
+
+        Block block = blocks.get(number);
+        ByteBuffer compressed = ByteBuffer.allocate(block.compressedLength());
+        while (compressed.hasRemaining()) {
+            if (blocksChannel.read(compressed, block.position() + compressed.position()) < 0)
+                throw new EOFException("Archived block at " + block.firstOffset() + " is cut short");
+        }
+
+        raw = new byte[block.rawLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && inflater.needsInput())
+                    throw new EOFException("Archived block at " + block.firstOffset() + " is cut short");
+                length += inflated;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Archived block at " + block.firstOffset() + " is damaged", ex);
+        } finally {
+            inflater.end();
+        }
+        cache.put(number, raw);
+        return raw;
+    }
+
+    private void load(Path blocksPath, Path indexPath) throws IOException {
+
+        if (blocksChannel.size() == 0 && indexChannel.size() == 0) {
+            write(blocksChannel, ByteBuffer.allocate(4).putInt(BLOCKS_MAGIC).flip(), 0);
+            write(indexChannel, ByteBuffer.allocate(4).putInt(INDEX_MAGIC).flip(), 0);
+            blocksLength = 4;
+            indexLength = 4;
+            return;
+        }
+        if (!hasMagic(blocksChannel, BLOCKS_MAGIC)) throw new IOException("Not a log archive: " + blocksPath);
+        if (!hasMagic(indexChannel, INDEX_MAGIC)) throw new IOException("Not a log archive index: " + indexPath);
+
+        long size = blocksChannel.size();
+        long entries = (indexChannel.size() - 4) / ENTRY_SIZE;
+        ByteBuffer content = ByteBuffer.allocate((int) (entries * ENTRY_SIZE));
+        while (content.hasRemaining() && indexChannel.read(content, 4 + content.position()) > 0) { }
+        content.flip();
+
+        blocksLength = 4;
+        for (long i = 0; i < entries; i++) {
+            Block block = new Block(content.getLong(), content.getInt(), content.getLong(), content.getInt(),
+                    content.getInt(), content.getLong(), content.getLong());
+            // Entry whose block did not reach the disk before a crash
+            if (block.position() + block.compressedLength() > size) break;
+            blocks.add(block);
+            blocksLength = block.position() + block.compressedLength();
+        }
+        indexLength = 4 + (long) blocks.size() * ENTRY_SIZE;
+        indexChannel.truncate(indexLength);
+        blocksChannel.truncate(blocksLength);
+    }
+
+    private static boolean hasMagic(FileChannel channel, int magic) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        return header.position() == 4 && header.getInt(0) == magic;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
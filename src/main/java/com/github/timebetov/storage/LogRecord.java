@@ -0,0 +1,28 @@
+package com.github.timebetov.storage;
+
+import com.github.timebetov.models.Transaction;
+
+import java.util.UUID;
+
+/**
+ * One entry of the {@link TransactionLog}.
+ *
+ * @param offset       position of the record in the log, {@link TransactionLog#NO_OFFSET} until it is appended
+ * @param type         {@link Type#PUT} writes a new version of the transaction, {@link Type#REMOVE} drops it from the ledger
+ * @param id           transaction the record belongs to
+ * @param previous     offset of the version this record replaces, {@link TransactionLog#NO_OFFSET} for the first one
+ * @param recordedAt   wall clock time of the change in epoch millis, never decreasing along the log
+ * @param transaction  the new version for {@link Type#PUT}, null for {@link Type#REMOVE}
+ */
+public record LogRecord(long offset, Type type, UUID id, long previous, long recordedAt, Transaction transaction) {
+
+    public enum Type { PUT, REMOVE }
+
+    public static LogRecord put(Transaction transaction, long previous, long recordedAt) {
+        return new LogRecord(TransactionLog.NO_OFFSET, Type.PUT, transaction.getId(), previous, recordedAt, transaction);
+    }
+
+    public static LogRecord remove(UUID id, long previous, long recordedAt) {
+        return new LogRecord(TransactionLog.NO_OFFSET, Type.REMOVE, id, previous, recordedAt, null);
+    }
+}
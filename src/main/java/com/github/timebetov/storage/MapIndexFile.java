@@ -0,0 +1,39 @@
+package com.github.timebetov.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reader of the index files written before the log format, stored as {@code [count:4]} followed by
+ * {@code [most:8][least:8][offset:8]} entries. Only read once when {@link LegacyLedgerFile} migrates a ledger.
+ */
+public class MapIndexFile {
+
+    private MapIndexFile() {}
+
+    /**
+     * Reads an index file into memory.
+     */
+    public static Map<UUID, Long> read(Path path) throws IOException {
+
+        Map<UUID, Long> entries = new LinkedHashMap<>();
+        try (RandomAccessFile ra = new RandomAccessFile(path.toString(), "r")) {
+            if (ra.length() < 4) return entries;
+            int size = ra.readInt();
+
+            byte[] content = new byte[(int) Math.min(ra.length() - 4, (long) size * 24)];
+            ra.readFully(content);
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.remaining() >= 24) {                      // 3 long = 24 bytes
+                UUID key = new UUID(buffer.getLong(), buffer.getLong());
+                entries.put(key, buffer.getLong());
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,334 @@
+package com.github.timebetov.storage;
+
+import com.github.timebetov.models.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index from the words of descriptions to the log offsets of the versions that contain them.
+ * <p>
+ * Versions are only ever added, offsets grow along the log, so each posting list is kept as varint encoded
+ * gaps between increasing offsets. Postings of versions replaced or removed later stay in the lists; the id
+ * of every indexed version is kept by offset, so they are dropped at query time by checking them against the
+ * id index without going to the log. Once they outnumber the live ones the index is rebuilt from the live
+ * versions.
+ * <p>
+ * Saved as a snapshot with the log position it covers, records written after that are added on open.
+ * <pre>
+ * snapshot: [magic:4][version:4][watermark:8][versions:8][tokens:4]
+ *           then per token [token:UTF][count:4][last:8][length:4][gaps:length]
+ *           then per version [offset:8][most:8][least:8]
+ * </pre>
+ * Not thread-safe, one thread owns the index.
+ */
+public class SearchIndex {
+
+    static final int MAGIC = 0x4D575331;                                // "MWS1"
+    static final int VERSION = 2;
+
+    // Stale postings are tolerated up to this many plus as many as there are live versions
+    private static final long COMPACTION_SLACK = 4096;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final Path path;
+    private final TransactionLog log;
+    private final TransactionIndex index;
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private final VersionIds ids = new VersionIds();               // versions added, live or not
+
+    private SearchIndex(Path path, TransactionLog log, TransactionIndex index) {
+        this.path = path;
+        this.log = log;
+        this.index = index;
+    }
+
+    /**
+     * Loads the snapshot and adds what the log got since, a missing or unreadable snapshot is rebuilt from the index.
+     */
+    public static SearchIndex open(Path path, TransactionLog log, TransactionIndex index) throws IOException {
+
+        SearchIndex search = new SearchIndex(path, log, index);
+        long watermark = search.readSnapshot();
+        if (watermark < 0 || watermark > log.length()) {
+            search.rebuild();
+        } else if (watermark < log.length()) {
+            log.scan(watermark, record -> {
+                search.add(record.offset(), record.transaction());
+                return true;
+            });
+        }
+        return search;
+    }
+
+    /**
+     * Indexes the description of a version stored at the offset, removals (null) and deleted versions are never found.
+     */
+    public void add(long offset, Transaction version) {
+
+        if (version == null || version.isDeleted()) return;
+        for (String token : tokenize(version.getDescription())) {
+            postings.computeIfAbsent(token, t -> new Postings()).add(offset);
+        }
+        ids.add(offset, version.getId());
+    }
+
+    /**
+     * Words of the query must all be in the description, a word ending with '*' matches any word it starts.
+     *
+     * @return ids of the latest versions that match, in log order
+     */
+    public List<UUID> find(String query) {
+
+        long[] hits = null;
+        for (String term : query.trim().split("\\s+")) {
+            boolean prefix = term.endsWith("*");
+            List<String> tokens = new ArrayList<>(tokenize(prefix ? term.substring(0, term.length() - 1) : term));
+            for (int i = 0; i < tokens.size(); i++) {
+                long[] offsets = prefix && i == tokens.size() - 1 ? prefixOffsets(tokens.get(i)) : offsets(tokens.get(i));
+                hits = hits == null ? offsets : intersect(hits, offsets);
+            }
+        }
+        if (hits == null) throw new IllegalArgumentException("Search needs at least one word");
+
+        List<UUID> found = new ArrayList<>(hits.length);
+        for (long offset : hits) {
+            UUID id = ids.at(offset);
+            if (index.get(id) == offset) found.add(id);
+        }
+        return found;
+    }
+
+    /**
+     * Writes the snapshot covering the log up to its current end, compacting first if most postings are stale.
+     */
+    public void save() throws IOException {
+
+        if (ids.size > index.size() * 2L + COMPACTION_SLACK) rebuild();
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(log.length());
+            out.writeLong(ids.size);
+            out.writeInt(postings.size());
+            for (var entry : postings.entrySet()) {
+                Postings list = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(list.count);
+                out.writeLong(list.last);
+                out.writeInt(list.length);
+                out.write(list.gaps, 0, list.length);
+            }
+            for (int i = 0; i < ids.size; i++) {
+                out.writeLong(ids.offsets[i]);
+                out.writeLong(ids.most[i]);
+                out.writeLong(ids.least[i]);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Splits text into distinct lower case words of letters and digits, accents removed ("Café-Bar" gives cafe, bar).
+     */
+    public static Set<String> tokenize(String text) {
+
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) return tokens;
+        if (!text.chars().allMatch(c -> c < 0x80))
+            text = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("");
+
+        StringBuilder token = new StringBuilder(16);
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    // Starts over from the latest versions only, in log order so offsets keep increasing
+    private void rebuild() throws IOException {
+
+        postings.clear();
+        ids.clear();
+        long[] offsets = new long[index.size()];
+        int[] count = new int[1];
+        index.forEach((id, offset) -> offsets[count[0]++] = offset);
+        Arrays.sort(offsets, 0, count[0]);
+        for (int i = 0; i < count[0]; i++) {
+            add(offsets[i], log.read(offsets[i]).transaction());
+        }
+    }
+
+    // @return watermark of the snapshot, -1 if there is no usable one
+    private long readSnapshot() {
+
+        if (!Files.exists(path)) return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return -1;
+            long watermark = in.readLong();
+            long versions = in.readLong();
+            int tokens = in.readInt();
+            for (int i = 0; i < tokens; i++) {
+                String token = in.readUTF();
+                Postings list = new Postings();
+                list.count = in.readInt();
+                list.last = in.readLong();
+                list.length = in.readInt();
+                list.gaps = new byte[list.length];
+                in.readFully(list.gaps);
+                postings.put(token, list);
+            }
+            for (long i = 0; i < versions; i++) {
+                ids.add(in.readLong(), new UUID(in.readLong(), in.readLong()));
+            }
+            return watermark;
+        } catch (IOException ex) {
+            // Cut short or damaged, rebuilt by the caller
+            postings.clear();
+            ids.clear();
+            return -1;
+        }
+    }
+
+    private long[] offsets(String token) {
+
+        Postings list = postings.get(token);
+        return list == null ? new long[0] : list.decode();
+    }
+
+    private long[] prefixOffsets(String prefix) {
+
+        Map<String, Postings> matching = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (matching.size() == 1) return matching.values().iterator().next().decode();
+
+        // A version containing several of the words is listed once
+        long[] merged = new long[matching.values().stream().mapToInt(list -> list.count).sum()];
+        int size = 0;
+        for (Postings list : matching.values()) {
+            long[] offsets = list.decode();
+            System.arraycopy(offsets, 0, merged, size, offsets.length);
+            size += offsets.length;
+        }
+        Arrays.sort(merged, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || merged[distinct - 1] != merged[i]) merged[distinct++] = merged[i];
+        }
+        return Arrays.copyOf(merged, distinct);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+
+        long[] common = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                common[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, size);
+    }
+
+    // Ids of the indexed versions, added in increasing offset order so they are found by binary search
+    private static final class VersionIds {
+
+        long[] offsets = new long[16];
+        long[] most = new long[16];
+        long[] least = new long[16];
+        int size;
+
+        void add(long offset, UUID id) {
+
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                most = Arrays.copyOf(most, size * 2);
+                least = Arrays.copyOf(least, size * 2);
+            }
+            offsets[size] = offset;
+            most[size] = id.getMostSignificantBits();
+            least[size] = id.getLeastSignificantBits();
+            size++;
+        }
+
+        UUID at(long offset) {
+
+            int i = Arrays.binarySearch(offsets, 0, size, offset);
+            return new UUID(most[i], least[i]);
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    private static final class Postings {
+
+        byte[] gaps = new byte[8];
+        int length;
+        int count;
+        long last;
+
+        void add(long offset) {
+
+            // Lists read from a snapshot are exactly full
+            if (length + 10 > gaps.length) gaps = Arrays.copyOf(gaps, Math.max(gaps.length * 2, length + 10));
+            long gap = offset - last;
+            while ((gap & ~0x7FL) != 0) {
+                gaps[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            gaps[length++] = (byte) gap;
+            last = offset;
+            count++;
+        }
+
+        long[] decode() {
+
+            long[] offsets = new long[count];
+            long offset = 0;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                long gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = gaps[position++];
+                    gap |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                offset += gap;
+                offsets[i] = offset;
+            }
+            return offsets;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.timebetov.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user table of description texts, log records refer to a text by its id instead of repeating it.
+ * Every text is kept as one shared instance, so transactions read from the log share their descriptions too.
+ * <pre>
+ * file: [magic:4] then [text:UTF] entries, the id of a text is the number of entries before it
+ * </pre>
+ * Append-only. New texts are buffered until {@link #force()}, which the log calls before writing records
+ * that use them, so they are on the disk first; an entry cut short by a crash is never referenced and is
+ * dropped on open.
+ * <p>
+ * All texts of up to {@link #MAX_LENGTH} chars ever written stay on the heap for as long as the dictionary is
+ * open, including the ones no transaction uses anymore.
+ * Thread-safe, readers of the log may decode while the writer adds texts.
+ */
+public class StringDictionary implements Closeable {
+
+    static final int MAGIC = 0x4D574431;                                // "MWD1"
+
+    // Longer texts are unlikely to repeat and stay inline in the record
+    static final int MAX_LENGTH = 64;
+
+    private final FileChannel channel;
+    private final List<String> texts = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1024);
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long flushedLength;
+    private long forcedLength;
+
+    private StringDictionary(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static StringDictionary open(Path path) throws IOException {
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        StringDictionary dictionary = new StringDictionary(channel);
+        try {
+            dictionary.load(path);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return id of the text, added if it is new; -1 for texts too long to be shared
+     */
+    public synchronized int idOf(String text) throws IOException {
+
+        if (text.length() > MAX_LENGTH) return -1;
+        Integer id = ids.get(text);
+        if (id != null) return id;
+
+        pendingOut.writeUTF(text);
+        texts.add(text);
+        ids.put(text, texts.size() - 1);
+        return texts.size() - 1;
+    }
+
+    public synchronized String get(int id) throws IOException {
+
+        if (id < 0 || id >= texts.size()) throw new IOException("Unknown dictionary id: " + id);
+        return texts.get(id);
+    }
+
+    /**
+     * @return the shared instance of an equal text, or the text itself if there is none yet
+     */
+    public synchronized String canonical(String text) {
+
+        if (text == null) return null;
+        Integer id = ids.get(text);
+        return id != null ? texts.get(id) : text;
+    }
+
+    public synchronized int size() {
+        return texts.size();
+    }
+
+    public synchronized void flush() throws IOException {
+
+        if (pending.size() == 0) return;
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        while (buffer.hasRemaining()) {
+            flushedLength += channel.write(buffer, flushedLength);
+        }
+        pending.reset();
+    }
+
+    /**
+     * Flushes and asks the OS to put the texts on the disk, nothing is forced if no text was added since.
+     */
+    public synchronized void force() throws IOException {
+
+        flush();
+        if (forcedLength == flushedLength) return;
+        channel.force(false);
+        forcedLength = flushedLength;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void load(Path path) throws IOException {
+
+        byte[] content = Files.readAllBytes(path);
+        if (content.length == 0) {
+            channel.write(ByteBuffer.allocate(4).putInt(MAGIC).flip(), 0);
+            flushedLength = 4;
+            return;
+        }
+        if (content.length < 4 || ByteBuffer.wrap(content).getInt() != MAGIC)
+            throw new IOException("Not a string dictionary: " + path);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 4, content.length - 4));
+        long complete = 4;
+        try {
+            while (in.available() > 0) {
+                String text = in.readUTF();
+                ids.put(text, texts.size());
+                texts.add(text);
+                complete = content.length - in.available();
+            }
+        } catch (EOFException | UTFDataFormatException ex) {
+            // Entry cut short by a crash, nothing refers to it
+            channel.truncate(complete);
+        }
+        flushedLength = complete;
+        forcedLength = complete;
+    }
+}
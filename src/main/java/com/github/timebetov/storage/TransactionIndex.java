@@ -0,0 +1,35 @@
+package com.github.timebetov.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persistent map from a transaction id to the log offset of its latest version.
+ * Changes are visible right away, they may be held in memory until {@link #flush()}.
+ */
+public interface TransactionIndex extends Closeable {
+
+    /**
+     * @return offset of the latest version, {@link TransactionLog#NO_OFFSET} if the id is unknown
+     */
+    long get(UUID id);
+
+    void put(UUID id, long offset) throws IOException;
+
+    void putAll(Map<UUID, Long> entries) throws IOException;
+
+    void removeAll(Collection<UUID> ids) throws IOException;
+
+    int size();
+
+    void forEach(EntryVisitor visitor);
+
+    void flush() throws IOException;
+
+    interface EntryVisitor {
+        void visit(UUID id, long offset);
+    }
+}
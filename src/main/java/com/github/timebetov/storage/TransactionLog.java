@@ -0,0 +1,654 @@
+package com.github.timebetov.storage;
+
+import com.github.timebetov.models.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only journal of transaction versions. Nothing is rewritten in place: an update or delete appends
+ * a new version that points to the one it replaces, so the whole history stays readable.
+ * <p>
+ * Appended records get their offset right away but are buffered until {@link #flush()}, reads flush first.
+ * A record cut short by a crash at the end of the file is dropped when the log is opened, so appends always
+ * start where the last complete record ends. Not thread-safe, one thread owns the log.
+ * <pre>
+ * header: [magic:4][format:4], format 3 adds [base:8]
+ * record: [type:1][deleted:1][id:16][previous:8][recordedAt:8][payloadLength:4][payload]
+ * payload (PUT only): type, category, amount scale/unscaled bytes, description, transaction time
+ * </pre>
+ * With a {@link StringDictionary} short descriptions are written as a varint dictionary id instead of the
+ * text, marked by {@link #DICTIONARY_FLAG} in the type byte. Records without the flag are read as before.
+ * <p>
+ * The oldest records can be moved to a {@link LogArchive} by {@link #archive(long)}. The file then starts
+ * at the first record still in it (format 3, the base in the header is its offset) and anything before the
+ * base is read from the archive. Offsets never change, appends and reads of the hot tail work as before.
+ * <p>
+ * Archived records that are still the latest version of their transaction are also kept uncompressed in the
+ * live copy next to the log, so {@link #scanLive(long, RecordVisitor)} loads the ledger without inflating the
+ * archive. The copy is only trusted while its base matches the one of the log.
+ * <pre>
+ * live copy: [magic:4][base:8][count:4] then count x [offset:8][record]
+ * </pre>
+ */
+public class TransactionLog implements Closeable {
+
+    public static final long NO_OFFSET = -1;
+
+    static final int MAGIC = 0x4D574A31;                                // "MWJ1"
+    static final int FORMAT = 2;
+    static final int ARCHIVED_FORMAT = 3;
+    static final int HEADER_SIZE = 8;
+    static final int ARCHIVED_HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 1 + 1 + 16 + 8 + 8 + 4;
+    static final int DICTIONARY_FLAG = 0x80;
+    static final int LIVE_MAGIC = 0x4D574C31;                           // "MWL1"
+    static final int LIVE_HEADER_SIZE = 4 + 8 + 4;
+
+    private final Path path;
+    private final Path livePath;
+    private FileChannel channel;
+    private final StringDictionary dictionary;
+    private final LogArchive archive;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private long flushedLength;
+    private long length;
+
+    // Bytes of a record cut short at the end of the file, dropped by open
+    private long droppedBytes;
+
+    // Offset of the first record in the file and where it starts in it, records before it are archived
+    private long base;
+    private int headerSize;
+
+    private TransactionLog(Path path, FileChannel channel, StringDictionary dictionary, LogArchive archive,
+                           long base, int headerSize) throws IOException {
+        this.path = path;
+        this.livePath = liveCopyPath(path);
+        this.channel = channel;
+        this.dictionary = dictionary;
+        this.archive = archive;
+        this.base = base;
+        this.headerSize = headerSize;
+        this.length = base + channel.size() - headerSize;
+        this.flushedLength = length;
+    }
+
+    /**
+     * Opens the log, an empty or missing file gets a fresh header. Descriptions are always written inline.
+     */
+    public static TransactionLog open(Path path) throws IOException {
+        return open(path, null);
+    }
+
+    /**
+     * Opens the log, an empty or missing file gets a fresh header.
+     *
+     * @param dictionary texts of records written with the dictionary flag, null to write descriptions inline
+     */
+    public static TransactionLog open(Path path, StringDictionary dictionary) throws IOException {
+        return open(path, dictionary, null);
+    }
+
+    /**
+     * Opens the log, an empty or missing file gets a fresh header.
+     *
+     * @param dictionary texts of records written with the dictionary flag, null to write descriptions inline
+     * @param archive    where records moved out of the file are read from and {@link #archive(long)} moves them to,
+     *                   null if records are never archived
+     */
+    public static TransactionLog open(Path path, StringDictionary dictionary, LogArchive archive) throws IOException {
+        return open(path, dictionary, archive, NO_OFFSET);
+    }
+
+    /**
+     * Opens the log, an empty or missing file gets a fresh header.
+     *
+     * @param dictionary   texts of records written with the dictionary flag, null to write descriptions inline
+     * @param archive      where records moved out of the file are read from and {@link #archive(long)} moves them to,
+     *                     null if records are never archived
+     * @param completeUpTo offset known to end a complete record, e.g. the latest checkpoint; only the records
+     *                     after it are checked for a crash cut, {@link #NO_OFFSET} checks the whole file
+     */
+    public static TransactionLog open(Path path, StringDictionary dictionary, LogArchive archive, long completeUpTo) throws IOException {
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                Files.deleteIfExists(liveCopyPath(path));
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT).flip();
+                channel.write(header, 0);
+            } else if (!isLog(channel)) {
+                throw new IOException("Not a transaction log: " + path);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(ARCHIVED_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+            TransactionLog log;
+            if (header.getInt(4) != ARCHIVED_FORMAT) {
+                log = new TransactionLog(path, channel, dictionary, archive, HEADER_SIZE, HEADER_SIZE);
+            } else {
+                long base = header.getLong(8);
+                if (archive == null || archive.end() < base)
+                    throw new IOException("Records before " + base + " of " + path + " are archived, but the archive does not have them");
+                log = new TransactionLog(path, channel, dictionary, archive, base, ARCHIVED_HEADER_SIZE);
+            }
+            log.dropCutRecord(completeUpTo);
+            return log;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return true if the file starts with the log header, false for files in the older format
+     */
+    public static boolean isLog(Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return isLog(channel);
+        }
+    }
+
+    private static boolean isLog(FileChannel channel) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        return header.position() == HEADER_SIZE && header.getInt(0) == MAGIC;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return where the log at the path keeps the uncompressed copy of its archived latest versions
+     */
+    public static Path liveCopyPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".live");
+    }
+
+    /**
+     * @return end of the log, where the next record goes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return bytes of a record cut short by a crash that were cut off the end of the file when it was opened,
+     * 0 if the file ended with a complete record
+     */
+    public long droppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * @return offset of the first record still in the log file, the ones before it are archived
+     */
+    public long base() {
+        return base;
+    }
+
+    /**
+     * @return offset the record is written at
+     */
+    public long append(LogRecord record) throws IOException {
+
+        long offset = length;
+        byte[] bytes = encode(record);
+        pending.write(bytes);
+        length += bytes.length;
+        return offset;
+    }
+
+    /**
+     * @return offsets the records are written at, in the same order
+     */
+    public long[] appendAll(List<LogRecord> records) throws IOException {
+
+        long[] offsets = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            offsets[i] = append(records.get(i));
+        }
+        return offsets;
+    }
+
+    /**
+     * Writes buffered records to the file with a single write.
+     */
+    public void flush() throws IOException {
+
+        if (pending.size() == 0) return;
+
+        // Texts go first and are forced, a record never refers to an id that a crash could lose
+        if (dictionary != null) dictionary.force();
+        write(ByteBuffer.wrap(pending.toByteArray()), flushedLength);
+        flushedLength = length;
+        pending.reset();
+    }
+
+    /**
+     * Flushes and asks the OS to put the written records on the disk.
+     */
+    public void force() throws IOException {
+
+        flush();
+        if (dictionary != null) dictionary.force();
+        channel.force(false);
+    }
+
+    public LogRecord read(long offset) throws IOException {
+
+        if (offset >= flushedLength) flush();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(header, offset);
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(RECORD_HEADER_SIZE - 4));
+        readFully(payload, offset + RECORD_HEADER_SIZE);
+        return decode(offset, header.flip(), payload.array());
+    }
+
+    /**
+     * Reads records one after another starting at 'from' until the visitor returns false or the log ends.
+     */
+    public void scan(long from, RecordVisitor visitor) throws IOException {
+
+        flush();
+        long start = Math.max(from, HEADER_SIZE);
+        try (InputStream file = Files.newInputStream(path)) {
+            // Archived records come first, their blocks are inflated only as far as the scan goes
+            file.skipNBytes(position(Math.max(start, base)));
+            InputStream records = start < base ? new SequenceInputStream(archive.stream(start, base), file) : file;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(records, 1 << 16));
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            long offset = start;
+            while (offset + RECORD_HEADER_SIZE <= length) {
+                in.readFully(header);
+                long payloadLength = Integer.toUnsignedLong(ByteBuffer.wrap(header).getInt(RECORD_HEADER_SIZE - 4));
+                if (offset + RECORD_HEADER_SIZE + payloadLength > length) return;
+                byte[] payload = new byte[(int) payloadLength];
+                in.readFully(payload);
+                if (!visitor.visit(decode(offset, ByteBuffer.wrap(header), payload))) return;
+                offset += RECORD_HEADER_SIZE + payload.length;
+            }
+        } catch (EOFException ex) {
+            // Record cut short by a crash while it was written, nothing after it
+        }
+    }
+
+    /**
+     * Like {@link #scan(long, RecordVisitor)}, but the archived records come from the live copy: only the ones
+     * that were the latest version of their transaction when they were archived are visited, and no block is
+     * inflated. Without a live copy for the current base the archive is read as by scan.
+     */
+    public void scanLive(long from, RecordVisitor visitor) throws IOException {
+
+        if (from >= base || !hasLiveCopy()) {
+            scan(from, visitor);
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(livePath), 1 << 16))) {
+            in.skipNBytes(LIVE_HEADER_SIZE - 4);
+            int count = in.readInt();
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                in.readFully(header);
+                byte[] payload = new byte[ByteBuffer.wrap(header).getInt(RECORD_HEADER_SIZE - 4)];
+                in.readFully(payload);
+                if (offset >= from && !visitor.visit(decode(offset, ByteBuffer.wrap(header), payload))) return;
+            }
+        }
+        scan(base, visitor);
+    }
+
+    /**
+     * Moves the records written before the time without keeping a live copy of them, see {@link #archive(long, TransactionIndex)}.
+     *
+     * @return number of records moved
+     */
+    public int archive(long recordedBefore) throws IOException {
+        return archive(recordedBefore, null);
+    }
+
+    /**
+     * Moves the records written before the time, from the start of the log, into compressed blocks of the
+     * archive and drops them from the file. Records are in the order they were written, so the moved ones are
+     * always a prefix of the log.
+     * <p>
+     * Blocks are on the disk before the file is replaced by a copy of its remaining records; a crash in between
+     * leaves records in both, and the file is only ever read from its base on. The live copy is replaced in
+     * between too, it is not trusted until the file has its base.
+     *
+     * @param latest offsets of the latest versions, archived records at them are kept in the live copy;
+     *               null keeps no live copy
+     * @return number of records moved
+     */
+    public int archive(long recordedBefore, TransactionIndex latest) throws IOException {
+
+        if (archive == null) throw new IllegalStateException("Log was opened without an archive");
+        flush();
+
+        Path liveTmp = livePath.resolveSibling(livePath.getFileName() + ".tmp");
+        int moved = 0, live = 0;
+        try (FileChannel liveChannel = FileChannel.open(liveTmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             InputStream file = Files.newInputStream(path)) {
+            DataOutputStream liveOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(liveChannel), 1 << 16));
+            liveOut.write(new byte[LIVE_HEADER_SIZE]);
+            if (latest != null) live = copyLive(latest, liveOut);
+
+            // Left off by a crash after the blocks were written, they are not written twice but their latest versions are copied
+            long archivedEnd = Math.max(base, archive.end());
+            file.skipNBytes(position(base));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            byte[] block = new byte[LogArchive.BLOCK_SIZE + RECORD_HEADER_SIZE];
+            byte[] record = new byte[RECORD_HEADER_SIZE];
+            int blockLength = 0, blockRecords = 0;
+            long blockStart = archivedEnd, firstRecordedAt = 0, lastRecordedAt = 0;
+            long offset = base;
+            // A record cut short by a crash stays in the file
+            while (offset + RECORD_HEADER_SIZE <= length) {
+                in.readFully(record, 0, RECORD_HEADER_SIZE);
+                ByteBuffer header = ByteBuffer.wrap(record, 0, RECORD_HEADER_SIZE);
+                long recordedAt = header.getLong(RECORD_HEADER_SIZE - 12);
+                int recordLength = RECORD_HEADER_SIZE + header.getInt(RECORD_HEADER_SIZE - 4);
+                boolean archived = offset < archivedEnd;
+                if (!archived && (recordedAt >= recordedBefore || offset + recordLength > length)) break;
+
+                if (recordLength > record.length) record = Arrays.copyOf(record, recordLength);
+                in.readFully(record, RECORD_HEADER_SIZE, recordLength - RECORD_HEADER_SIZE);
+                if (latest != null && latest.get(new UUID(header.getLong(2), header.getLong(10))) == offset) {
+                    liveOut.writeLong(offset);
+                    liveOut.write(record, 0, recordLength);
+                    live++;
+                }
+                if (!archived) {
+                    if (blockLength > 0 && blockLength + recordLength > LogArchive.BLOCK_SIZE) {
+                        archive.append(blockStart, block, blockLength, blockRecords, firstRecordedAt, lastRecordedAt);
+                        blockStart += blockLength;
+                        blockLength = 0;
+                        blockRecords = 0;
+                    }
+                    if (blockLength + recordLength > block.length) block = Arrays.copyOf(block, blockLength + recordLength);
+                    System.arraycopy(record, 0, block, blockLength, recordLength);
+                    if (blockRecords == 0) firstRecordedAt = recordedAt;
+                    lastRecordedAt = recordedAt;
+                    blockLength += recordLength;
+                    blockRecords++;
+                    moved++;
+                }
+                offset += recordLength;
+            }
+            if (blockLength > 0) archive.append(blockStart, block, blockLength, blockRecords, firstRecordedAt, lastRecordedAt);
+            archive.force();
+
+            liveOut.flush();
+            ByteBuffer liveHeader = ByteBuffer.allocate(LIVE_HEADER_SIZE).putInt(LIVE_MAGIC).putLong(archive.end()).putInt(live).flip();
+            while (liveHeader.hasRemaining()) liveChannel.write(liveHeader, liveHeader.position());
+            liveChannel.force(false);
+        }
+
+        long cut = archive.end();
+        if (cut > base && latest != null) Files.move(liveTmp, livePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        else Files.deleteIfExists(liveTmp);
+        if (cut > base) rewriteFrom(cut);
+        return moved;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Walks the record headers after an offset ending a complete record and cuts the file after the last complete one,
+    // so nothing is appended behind a record a crash cut short
+    private void dropCutRecord(long completeUpTo) throws IOException {
+
+        long end = length;
+        long offset = completeUpTo >= base && completeUpTo <= end ? completeUpTo : base;
+        try (InputStream file = Files.newInputStream(path)) {
+            file.skipNBytes(position(offset));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            while (offset + RECORD_HEADER_SIZE <= end) {
+                in.readFully(header);
+                long payloadLength = Integer.toUnsignedLong(ByteBuffer.wrap(header).getInt(RECORD_HEADER_SIZE - 4));
+                if (offset + RECORD_HEADER_SIZE + payloadLength > end) break;
+                in.skipNBytes(payloadLength);
+                offset += RECORD_HEADER_SIZE + payloadLength;
+            }
+        }
+        if (offset == end) return;
+
+        channel.truncate(position(offset));
+        channel.force(false);
+        length = offset;
+        flushedLength = offset;
+        droppedBytes = end - offset;
+    }
+
+    // Replaces the file by one holding the records from the offset on
+    private void rewriteFrom(long newBase) throws IOException {
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(ARCHIVED_HEADER_SIZE).putInt(MAGIC).putInt(ARCHIVED_FORMAT).putLong(newBase).flip();
+            while (header.hasRemaining()) target.write(header);
+            long position = position(newBase), end = channel.size();
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+            target.force(false);
+        }
+
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        base = newBase;
+        headerSize = ARCHIVED_HEADER_SIZE;
+    }
+
+    // True if the live copy holds the latest versions of the records before the current base
+    private boolean hasLiveCopy() throws IOException {
+
+        if (!Files.exists(livePath)) return false;
+        try (FileChannel live = FileChannel.open(livePath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(LIVE_HEADER_SIZE);
+            while (header.hasRemaining() && live.read(header, header.position()) > 0) { }
+            return header.position() == LIVE_HEADER_SIZE && header.getInt(0) == LIVE_MAGIC && header.getLong(4) == base;
+        }
+    }
+
+    // Copies the records before the base that are still the latest versions, from the live copy when there is one
+    // for the base, otherwise from the archive once
+    private int copyLive(TransactionIndex latest, DataOutputStream out) throws IOException {
+
+        if (base <= HEADER_SIZE) return 0;
+        boolean fromCopy = hasLiveCopy();
+        int copied = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                fromCopy ? Files.newInputStream(livePath) : archive.stream(HEADER_SIZE, base), 1 << 16))) {
+            int count = Integer.MAX_VALUE;
+            if (fromCopy) {
+                in.skipNBytes(LIVE_HEADER_SIZE - 4);
+                count = in.readInt();
+            }
+            byte[] record = new byte[RECORD_HEADER_SIZE];
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < count && (fromCopy || offset < base); i++) {
+                if (fromCopy) offset = in.readLong();
+                in.readFully(record, 0, RECORD_HEADER_SIZE);
+                ByteBuffer header = ByteBuffer.wrap(record, 0, RECORD_HEADER_SIZE);
+                int recordLength = RECORD_HEADER_SIZE + header.getInt(RECORD_HEADER_SIZE - 4);
+                if (recordLength > record.length) record = Arrays.copyOf(record, recordLength);
+                in.readFully(record, RECORD_HEADER_SIZE, recordLength - RECORD_HEADER_SIZE);
+                if (latest.get(new UUID(header.getLong(2), header.getLong(10))) == offset) {
+                    out.writeLong(offset);
+                    out.write(record, 0, recordLength);
+                    copied++;
+                }
+                offset += recordLength;
+            }
+        }
+        return copied;
+    }
+
+    // Place of a log offset in the file
+    private long position(long offset) {
+        return offset - base + headerSize;
+    }
+
+    public interface RecordVisitor {
+        /**
+         * @return false to stop scanning
+         */
+        boolean visit(LogRecord record) throws IOException;
+    }
+
+    private void write(ByteBuffer buffer, long offset) throws IOException {
+
+        long position = position(offset);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+
+        if (offset < base) {
+            archive.read(buffer, offset);
+            return;
+        }
+        long position = position(offset);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException("Record at " + offset + " is cut short");
+        }
+    }
+
+    private byte[] encode(LogRecord record) throws IOException {
+
+        int descriptionId = -1;
+        if (record.type() == LogRecord.Type.PUT && dictionary != null)
+            descriptionId = dictionary.idOf(record.transaction().getDescription());
+
+        byte[] payload = record.type() == LogRecord.Type.PUT ? encodePayload(record.transaction(), descriptionId) : new byte[0];
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        buffer.put((byte) (record.type().ordinal() | (descriptionId >= 0 ? DICTIONARY_FLAG : 0)));
+        buffer.put((byte) (record.transaction() != null && record.transaction().isDeleted() ? 1 : 0));
+        buffer.putLong(record.id().getMostSignificantBits());
+        buffer.putLong(record.id().getLeastSignificantBits());
+        buffer.putLong(record.previous());
+        buffer.putLong(record.recordedAt());
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private static byte[] encodePayload(Transaction data, int descriptionId) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(data.getType().toString());                    // size depends on character size
+        out.writeUTF(data.getCategory().toString());
+
+        // Splitting & Writing BigDecimal
+        BigDecimal amount = data.getAmount();
+        out.writeInt(amount.scale());                               // Scale of BigDecimal and int writes 4 bytes
+        byte[] unscaledBytes = amount.unscaledValue().toByteArray();
+        out.writeInt(unscaledBytes.length);                         // Length of an array
+        out.write(unscaledBytes);                                   // Bytes
+
+        if (descriptionId >= 0) writeVarint(out, descriptionId);   // Description as dictionary id
+        else out.writeUTF(data.getDescription());                   // Description
+        out.writeLong(data.getTransactionTime().toEpochMilli());    // Timestamp UTC
+        return bytes.toByteArray();
+    }
+
+    private LogRecord decode(long offset, ByteBuffer header, byte[] payload) throws IOException {
+
+        int typeByte = header.get() & 0xFF;
+        var type = LogRecord.Type.values()[typeByte & ~DICTIONARY_FLAG];
+        boolean dictionaryDescription = (typeByte & DICTIONARY_FLAG) != 0;
+        boolean isDeleted = header.get() == 1;
+        UUID id = new UUID(header.getLong(), header.getLong());
+        long previous = header.getLong();
+        long recordedAt = header.getLong();
+
+        Transaction transaction = null;
+        if (type == LogRecord.Type.PUT) {
+            transaction = decodePayload(id, new DataInputStream(new ByteArrayInputStream(payload)), dictionaryDescription);
+            transaction.setDeleted(isDeleted);
+        }
+        return new LogRecord(offset, type, id, previous, recordedAt, transaction);
+    }
+
+    private Transaction decodePayload(UUID id, DataInputStream in, boolean dictionaryDescription) throws IOException {
+
+        var type = Transaction.TransactionType.valueOf(in.readUTF());
+        var category = Transaction.Category.valueOf(in.readUTF());
+
+        // Reading amount (BigDecimal)
+        int scale = in.readInt();
+        byte[] unscaledBytes = new byte[in.readInt()];
+        in.readFully(unscaledBytes);
+        BigDecimal amount = new BigDecimal(new BigInteger(unscaledBytes), scale);
+
+        String description;
+        if (!dictionaryDescription) description = in.readUTF();
+        else if (dictionary != null) description = dictionary.get(readVarint(in));
+        else throw new IOException("Record of " + id + " refers to a string dictionary, but the log was opened without one");
+        Instant transactionTime = Instant.ofEpochMilli(in.readLong());
+        return new Transaction(id, type, category, amount, description, transactionTime);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
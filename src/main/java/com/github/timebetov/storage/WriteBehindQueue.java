@@ -0,0 +1,130 @@
+package com.github.timebetov.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs storage writes on one dedicated thread, in the order they were submitted. The thread takes whatever
+ * piled up in the queue as one batch and finishes it with a single flush, so many small changes cost one disk write.
+ * A full queue blocks the submitting thread until the writer catches up.
+ */
+public class WriteBehindQueue implements Closeable {
+
+    // Upper bound of tasks written between two flushes
+    private static final int MAX_BATCH = 1024;
+
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    private record Entry(Task task, CompletableFuture<Void> done) {}
+
+    private static final Entry STOP = new Entry(() -> {}, new CompletableFuture<>());
+
+    private final BlockingQueue<Entry> queue;
+    private final Task flush;
+    private final Thread thread;
+
+    // First failure of the writer, the ones after it are not attempted
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity tasks that may wait in the queue before submitting blocks
+     * @param flush    runs after each batch, the batch counts as written once it returns
+     */
+    public WriteBehindQueue(String name, int capacity, Task flush) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flush = flush;
+        this.thread = new Thread(this::writeLoop, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues the task, blocking while the queue is full.
+     *
+     * @return completes once the task and the flush after it are done
+     */
+    public CompletableFuture<Void> submit(Task task) {
+
+        if (closed) throw new IllegalStateException("Writer is closed");
+        if (failure != null) throw new IllegalStateException("Writing to disk failed: " + failure.getMessage(), failure);
+
+        Entry entry = new Entry(task, new CompletableFuture<>());
+        try {
+            queue.put(entry);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the writer", ex);
+        }
+        return entry.done();
+    }
+
+    /**
+     * @return completes once everything submitted so far is written
+     */
+    public CompletableFuture<Void> barrier() {
+        return submit(() -> {});
+    }
+
+    /**
+     * Stops accepting tasks and waits until the queued ones are written.
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (closed) return;
+        closed = true;
+        try {
+            queue.put(STOP);
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void writeLoop() {
+
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            stopping = batch.remove(STOP);
+            runBatch(batch);
+            batch.clear();
+        }
+
+        // Submitted while closing, after the stop marker
+        queue.drainTo(batch);
+        batch.forEach(entry -> entry.done().completeExceptionally(new IllegalStateException("Writer is closed")));
+    }
+
+    private void runBatch(List<Entry> batch) {
+
+        if (failure == null) {
+            try {
+                for (var entry : batch) entry.task().run();
+                flush.run();
+            } catch (IOException | RuntimeException ex) {
+                failure = ex instanceof IOException io ? io : new IOException(ex);
+            }
+        }
+
+        for (var entry : batch) {
+            if (failure == null) entry.done().complete(null);
+            else entry.done().completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+import com.github.timebetov.storage.LogArchive;
+import com.github.timebetov.storage.LogRecord;
+import com.github.timebetov.storage.StringDictionary;
+import com.github.timebetov.storage.TransactionLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Disk taken by a ledger before and after its history older than 90 days is archived, and how long reads take
+ * from the plain log against the same reads from the archived one: single records in the cold and the hot part,
+ * and a month of history replayed the way an as-of query does. Last, how long {@code InFilesTransactionService}
+ * takes to open a store before and after its history is archived, which loads every live transaction, the disk
+ * its uncompressed copy of the archived live transactions takes, and the pass over the log loading makes with and
+ * without that copy.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.ArchiveBenchmark [rows]}
+ */
+public class ArchiveBenchmark {
+
+    private static final int POINT_READS = 20_000;
+    private static final int WINDOWS = 50;
+    private static final long MONTH = Duration.ofDays(30).toMillis();
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        List<Transaction> ledger = new LedgerGenerator(35).generate(rows);
+
+        try (var scratch = ScratchDir.create("archive-bench")) {
+            Path dir = scratch.path();
+            Path plainPath = dir.resolve("plain.dat");
+            Path archivedPath = dir.resolve("archived.dat");
+            Path arcPath = dir.resolve("archived.arc");
+            Path arxPath = dir.resolve("archived.arx");
+
+            // Each transaction recorded when it was made, so the log spans the years of the ledger
+            long[] offsets;
+            long[] recordedAt = ledger.stream().mapToLong(t -> t.getTransactionTime().toEpochMilli()).toArray();
+            try (StringDictionary dictionary = StringDictionary.open(dir.resolve("plain.dic"))) {
+                offsets = write(plainPath, dictionary, null, ledger);
+            }
+            try (StringDictionary dictionary = StringDictionary.open(dir.resolve("archived.dic"));
+                 LogArchive archive = LogArchive.open(arcPath, arxPath)) {
+                write(archivedPath, dictionary, archive, ledger);
+            }
+            ledger = null;
+
+            long cutoff = recordedAt[rows - 1] - Duration.ofDays(90).toMillis();
+            long started = System.nanoTime();
+            int moved;
+            try (StringDictionary dictionary = StringDictionary.open(dir.resolve("archived.dic"));
+                 LogArchive archive = LogArchive.open(arcPath, arxPath);
+                 TransactionLog log = TransactionLog.open(archivedPath, dictionary, archive)) {
+                moved = log.archive(cutoff);
+            }
+            long plainBytes = Files.size(plainPath);
+            long archivedBytes = Files.size(archivedPath) + Files.size(arcPath) + Files.size(arxPath);
+            System.out.printf("%,d rows, %,d archived in %d ms%n", rows, moved, (System.nanoTime() - started) / 1_000_000);
+            System.out.printf("disk: plain %,d B | archived %,d B (hot log %,d B) | -%.1f%%%n", plainBytes, archivedBytes,
+                    Files.size(archivedPath), 100.0 * (plainBytes - archivedBytes) / plainBytes);
+
+            try (StringDictionary plainDictionary = StringDictionary.open(dir.resolve("plain.dic"));
+                 TransactionLog plain = TransactionLog.open(plainPath, plainDictionary);
+                 StringDictionary archivedDictionary = StringDictionary.open(dir.resolve("archived.dic"));
+                 LogArchive archive = LogArchive.open(arcPath, arxPath);
+                 TransactionLog archived = TransactionLog.open(archivedPath, archivedDictionary, archive)) {
+
+                System.out.printf("%d blocks, base at %,d%n", archive.blocks().size(), archived.base());
+                for (int round = 0; round < 3; round++) {
+                    System.out.printf("cold read:  plain %.2f us | archived %.2f us%n",
+                            pointReads(plain, offsets, 0, moved), pointReads(archived, offsets, 0, moved));
+                    System.out.printf("hot read:   plain %.2f us | archived %.2f us%n",
+                            pointReads(plain, offsets, moved, rows), pointReads(archived, offsets, moved, rows));
+                    System.out.printf("month replay (cold): plain %.2f ms | archived %.2f ms%n",
+                            replays(plain, offsets, recordedAt, 0, moved), replays(archived, offsets, recordedAt, 0, moved));
+                    System.out.printf("month replay (hot):  plain %.2f ms | archived %.2f ms%n",
+                            replays(plain, offsets, recordedAt, moved, rows), replays(archived, offsets, recordedAt, moved, rows));
+                }
+            }
+
+            Path storeDir = dir.resolve("store");
+            LedgerGenerator.writeStore(storeDir, "bench", 35, rows);
+            new InFilesTransactionService(storeDir, "bench", false).close();      // derived files built once
+            double plainOpen = reopen(storeDir);
+            try (var service = new InFilesTransactionService(storeDir, "bench", false)) {
+                moved = service.archive(Instant.ofEpochMilli(cutoff));
+            }
+            System.out.printf("reopen (%,d archived): plain %.0f ms | archived %.0f ms, live copy %,d B%n", moved, plainOpen,
+                    reopen(storeDir), Files.size(TransactionLog.liveCopyPath(storeDir.resolve("bench_data.dat"))));
+            try (StringDictionary dictionary = StringDictionary.open(storeDir.resolve("bench_data.dic"));
+                 LogArchive archive = LogArchive.open(storeDir.resolve("bench_data.arc"), storeDir.resolve("bench_data.arx"));
+                 TransactionLog log = TransactionLog.open(storeDir.resolve("bench_data.dat"), dictionary, archive)) {
+                for (int round = 0; round < 3; round++) {
+                    System.out.printf("load pass: inflating the archive %.0f ms | live copy %.0f ms%n", loadPass(log, false), loadPass(log, true));
+                }
+            }
+        }
+    }
+
+    // @return best of a few opens of the store in milliseconds, closing is not counted
+    private static double reopen(Path storeDir) {
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long started = System.nanoTime();
+            var service = new InFilesTransactionService(storeDir, "bench", false);
+            best = Math.min(best, System.nanoTime() - started);
+            service.close();
+        }
+        return best / 1e6;
+    }
+
+    // @return milliseconds of a pass over the whole log, archived records read from the blocks or from the live copy
+    private static double loadPass(TransactionLog log, boolean live) throws IOException {
+
+        long[] count = new long[1];
+        long started = System.nanoTime();
+        TransactionLog.RecordVisitor visitor = record -> ++count[0] > 0;
+        if (live) log.scanLive(0, visitor);
+        else log.scan(0, visitor);
+        if (count[0] == 0) throw new IllegalStateException();
+        return (System.nanoTime() - started) / 1e6;
+    }
+
+    private static long[] write(Path path, StringDictionary dictionary, LogArchive archive, List<Transaction> ledger) throws IOException {
+
+        try (TransactionLog log = TransactionLog.open(path, dictionary, archive)) {
+            return log.appendAll(ledger.stream()
+                    .map(t -> LogRecord.put(t, TransactionLog.NO_OFFSET, t.getTransactionTime().toEpochMilli()))
+                    .toList());
+        }
+    }
+
+    // @return microseconds per read of a random record among offsets[from, to)
+    private static double pointReads(TransactionLog log, long[] offsets, int from, int to) throws IOException {
+
+        if (from >= to) return 0;
+        var random = new Random(36);
+        long checksum = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < POINT_READS; i++) {
+            checksum += log.read(offsets[from + random.nextInt(to - from)]).recordedAt();
+        }
+        if (checksum == 0) throw new IllegalStateException();
+        return (System.nanoTime() - started) / 1000.0 / POINT_READS;
+    }
+
+    // @return milliseconds per replay of the records of a month starting at a random record among offsets[from, to)
+    private static double replays(TransactionLog log, long[] offsets, long[] recordedAt, int from, int to) throws IOException {
+
+        if (from >= to) return 0;
+        var random = new Random(36);
+        long[] count = new long[1];
+        long started = System.nanoTime();
+        for (int i = 0; i < WINDOWS; i++) {
+            int first = from + random.nextInt(to - from);
+            long until = recordedAt[first] + MONTH;
+            log.scan(offsets[first], record -> {
+                if (record.recordedAt() > until) return false;
+                count[0]++;
+                return true;
+            });
+        }
+        if (count[0] == 0) throw new IllegalStateException();
+        return (System.nanoTime() - started) / 1e6 / WINDOWS;
+    }
+}
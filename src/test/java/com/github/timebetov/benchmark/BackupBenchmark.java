@@ -0,0 +1,55 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Time of a first, full backup of a ledger against the backups after it, each following a small batch of
+ * new transactions, and how many transactions a writer adds while one backup runs.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.BackupBenchmark [rows]}
+ */
+public class BackupBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        List<Transaction> ledger = new LedgerGenerator(35).generate(rows + BATCH * (ROUNDS + 1));
+
+        try (var scratch = ScratchDir.create("backup-bench");
+             var service = new InFilesTransactionService(scratch.path(), "bench", false, true)) {
+            Path dir = scratch.path();
+            Path backupDir = dir.resolve("backup");
+            service.addAll(ledger.subList(0, rows));
+            service.flush().join();
+
+            long started = System.nanoTime();
+            long bytes = service.backup(backupDir).join();
+            System.out.printf("full backup:        %,12d B in %6.1f ms%n", bytes, (System.nanoTime() - started) / 1e6);
+
+            for (int round = 0; round < ROUNDS; round++) {
+                int from = rows + round * BATCH;
+                service.addAll(ledger.subList(from, from + BATCH));
+                started = System.nanoTime();
+                bytes = service.backup(backupDir).join();
+                System.out.printf("after %,d new rows: %,12d B in %6.1f ms%n", BATCH, bytes, (System.nanoTime() - started) / 1e6);
+            }
+
+            // Writes keep going while the copy runs
+            var running = service.backup(dir.resolve("second"));
+            int from = rows + ROUNDS * BATCH, added = 0;
+            while (!running.isDone() && added < BATCH) {
+                service.add(ledger.get(from + added++));
+            }
+            bytes = running.join();
+            System.out.printf("%,d rows added during a full backup of %,d B%n", added, bytes);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.helper.AppConstant;
+import com.github.timebetov.helper.BatchRunner;
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput of batch mode: generated ADD commands into an empty ledger, then a mix of GET, UPDATE and DELETE on
+ * the rows they added, each run through {@link BatchRunner} the way {@code -B} does. Batch mode writes
+ * synchronously; the same commands with asynchronous writes are shown for comparison, flushed before the clock stops.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.BatchBenchmark [adds] [changes]}
+ */
+public class BatchBenchmark {
+
+    // Commands per second batch mode should keep up with
+    static final long TARGET_PER_SECOND = 20_000;
+
+    public static void main(String[] args) throws IOException {
+
+        int adds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        StringBuilder addLines = new StringBuilder();
+        for (Transaction transaction : new LedgerGenerator(27).generate(adds)) {
+            addLines.append("ADD ").append(transaction.getType()).append(' ').append(transaction.getCategory())
+                    .append(' ').append(transaction.getAmount().toPlainString())
+                    .append(" \"").append(transaction.getDescription().replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\" ").append(LocalDateTime.ofInstant(transaction.getTransactionTime(), ZoneId.systemDefault())
+                            .format(AppConstant.TIME_FORMAT))
+                    .append('\n');
+        }
+
+        for (boolean asyncWrites : new boolean[] {false, true}) {
+            try (var scratch = ScratchDir.create("batch-bench");
+                 var service = new InFilesTransactionService(scratch.path(), "bench", false, asyncWrites)) {
+                System.out.println(asyncWrites ? "async writes:" : "sync writes (batch mode):");
+
+                StringWriter added = new StringWriter();
+                report("ADD", adds, run(service, addLines, added));
+
+                List<String> ids = new ArrayList<>(adds);
+                for (String line : added.toString().split("\n")) {
+                    if (line.startsWith("OK\t")) ids.add(line.substring(line.lastIndexOf('\t') + 1));
+                }
+                report("GET/UPDATE/DELETE", changes, run(service, changeLines(ids, changes), Writer.nullWriter()));
+            }
+        }
+    }
+
+    // Half reads, a bit less than half new amounts, the rest deletes; a deleted id is not picked again
+    private static CharSequence changeLines(List<String> ids, int count) {
+
+        var random = new Random(27);
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count && !ids.isEmpty(); i++) {
+            int index = random.nextInt(ids.size());
+            int roll = random.nextInt(100);
+            if (roll < 50) {
+                lines.append("GET ").append(ids.get(index));
+            } else if (roll < 90) {
+                lines.append("UPDATE ").append(ids.get(index)).append(" - - ").append(1 + random.nextInt(1000)).append(".00 - -");
+            } else {
+                lines.append("DELETE ").append(ids.get(index));
+                ids.set(index, ids.get(ids.size() - 1));
+                ids.remove(ids.size() - 1);
+            }
+            lines.append('\n');
+        }
+        return lines;
+    }
+
+    // @return nanoseconds taken, pending writes included
+    private static long run(InFilesTransactionService service, CharSequence lines, Writer out) throws IOException {
+
+        long started = System.nanoTime();
+        int errors = new BatchRunner(service, out).run(new BufferedReader(new StringReader(lines.toString()), 1 << 16));
+        service.flush().join();
+        long nanos = System.nanoTime() - started;
+        if (errors > 0) throw new IllegalStateException(errors + " commands failed");
+        return nanos;
+    }
+
+    private static void report(String name, int commands, long nanos) {
+
+        double perSecond = commands * 1e9 / nanos;
+        System.out.printf("  %-18s %,9d commands in %6.2f s, %,9.0f/s, target %,d/s: %s%n", name, commands, nanos / 1e9,
+                perSecond, TARGET_PER_SECOND, perSecond >= TARGET_PER_SECOND ? "MET" : "MISSED");
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.storage.LogRecord;
+import com.github.timebetov.storage.StringDictionary;
+import com.github.timebetov.storage.TransactionLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Disk and heap taken by a ledger with descriptions written inline against the same ledger written with a
+ * {@link StringDictionary}. Heap is what the loaded transactions retain, measured after full GCs.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.DictionaryBenchmark [rows]}
+ */
+public class DictionaryBenchmark {
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        List<Transaction> ledger = new LedgerGenerator(35).generate(rows);
+        long distinct = ledger.stream().map(Transaction::getDescription).distinct().count();
+        System.out.printf("%,d rows, %,d distinct descriptions%n", rows, distinct);
+
+        try (var scratch = ScratchDir.create("dictionary-bench")) {
+            Path dir = scratch.path();
+            Path inlinePath = dir.resolve("inline.dat");
+            Path sharedPath = dir.resolve("shared.dat");
+            Path dictionaryPath = dir.resolve("shared.dic");
+            write(inlinePath, null, ledger);
+            try (StringDictionary dictionary = StringDictionary.open(dictionaryPath)) {
+                write(sharedPath, dictionary, ledger);
+            }
+            ledger = null;
+
+            long inlineBytes = Files.size(inlinePath);
+            long sharedBytes = Files.size(sharedPath) + Files.size(dictionaryPath);
+            System.out.printf("disk: inline %,d B | dictionary %,d B (log + %,d B dictionary) | -%.1f%%%n",
+                    inlineBytes, sharedBytes, Files.size(dictionaryPath), 100.0 * (inlineBytes - sharedBytes) / inlineBytes);
+
+            long inlineHeap = retainedHeap(inlinePath, null);
+            long sharedHeap = retainedHeap(sharedPath, dictionaryPath);
+            System.out.printf("heap: inline %,d B | dictionary %,d B | -%.1f%%%n",
+                    inlineHeap, sharedHeap, 100.0 * (inlineHeap - sharedHeap) / inlineHeap);
+        }
+    }
+
+    private static void write(Path path, StringDictionary dictionary, List<Transaction> ledger) throws IOException {
+
+        try (TransactionLog log = TransactionLog.open(path, dictionary)) {
+            long recordedAt = System.currentTimeMillis();
+            log.appendAll(ledger.stream().map(t -> LogRecord.put(t, TransactionLog.NO_OFFSET, recordedAt)).toList());
+        }
+    }
+
+    // Heap freed by dropping the loaded ledger, the dictionary and its texts count as part of it
+    private static long retainedHeap(Path path, Path dictionaryPath) throws IOException {
+
+        StringDictionary dictionary = dictionaryPath != null ? StringDictionary.open(dictionaryPath) : null;
+        ArrayList<Transaction> loaded = new ArrayList<>();
+        try (TransactionLog log = TransactionLog.open(path, dictionary)) {
+            log.scan(0, record -> loaded.add(record.transaction()));
+        }
+        if (dictionary != null) dictionary.close();
+
+        long withLedger = usedHeap();
+        if (loaded.isEmpty() || (dictionary != null && dictionary.size() == 0))
+            throw new IllegalStateException("Nothing loaded from " + path);
+        loaded.clear();
+        loaded.trimToSize();
+        dictionary = null;
+        return withLedger - usedHeap();
+    }
+
+    private static long usedHeap() {
+
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of the duplicate check while a large ledger is imported in groups like batch mode does, on a batch of new
+ * rows (refused at its last row, so every row is checked and nothing is written) and on an overlapping re-import
+ * where every row is a probable hit that has to be confirmed.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.DuplicateBenchmark [rows]}
+ */
+public class DuplicateBenchmark {
+
+    private static final int GROUP_SIZE = 4096;
+    private static final int CHECKED = 100_000;
+    private static final int REIMPORTED = 10_000;
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Transaction> ledger = new LedgerGenerator(35).generate(rows + CHECKED);
+
+        try (var scratch = ScratchDir.create("duplicate-bench");
+             var service = new InFilesTransactionService(scratch.path(), "bench", false, true)) {
+            Path dir = scratch.path();
+            long started = System.nanoTime();
+            for (int from = 0; from < rows; from += GROUP_SIZE) {
+                service.addAll(ledger.subList(from, Math.min(rows, from + GROUP_SIZE)));
+            }
+            service.flush().join();
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.out.printf("import: %,d rows in %.2f s, %,.0f rows/s (filter %,d B)%n",
+                    rows, seconds, rows / seconds, Files.size(dir.resolve("bench_data.blm")));
+
+            for (int round = 0; round < 3; round++) {
+                List<Transaction> batch = new ArrayList<>(ledger.subList(rows, rows + CHECKED));
+                batch.add(copy(ledger.get(round)));
+                started = System.nanoTime();
+                try {
+                    service.addAll(batch);
+                    throw new IllegalStateException("Duplicate was not found");
+                } catch (IllegalArgumentException expected) {
+                    System.out.printf("check of a new row:    %.3f us%n", (System.nanoTime() - started) / 1e3 / batch.size());
+                }
+
+                int refused = 0;
+                started = System.nanoTime();
+                for (int i = 0; i < REIMPORTED; i++) {
+                    try {
+                        service.add(copy(ledger.get(i * (rows / REIMPORTED))));
+                    } catch (IllegalArgumentException expected) {
+                        refused++;
+                    }
+                }
+                System.out.printf("re-imported row:       %.3f us (%,d of %,d refused)%n",
+                        (System.nanoTime() - started) / 1e3 / REIMPORTED, refused, REIMPORTED);
+            }
+        }
+    }
+
+    // Same content under a new id, like a row of a bank export imported again
+    private static Transaction copy(Transaction transaction) {
+        return new Transaction(transaction.getType(), transaction.getCategory(), transaction.getAmount(),
+                transaction.getDescription(), transaction.getTransactionTime());
+    }
+}
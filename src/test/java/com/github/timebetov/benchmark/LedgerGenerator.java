@@ -0,0 +1,213 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.models.Transaction.Category;
+import com.github.timebetov.models.Transaction.TransactionType;
+import com.github.timebetov.storage.HashIndexFile;
+import com.github.timebetov.storage.LogRecord;
+import com.github.timebetov.storage.StringDictionary;
+import com.github.timebetov.storage.TransactionLog;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Deterministic personal ledgers for benchmarks: the same seed always gives the same transactions and ids, so
+ * the same seed writes byte for byte the same store. Ids are version 7 UUIDs (see {@code IdGenerator}) stamped
+ * with the transaction time, their counter and random bits come from the seed.
+ * <p>
+ * Day to day spending comes from a list of payees, earlier ones much more frequent (roughly Zipf), each with its
+ * own category, type and typical amount; amounts are log-normal around it. One in twenty descriptions is a free
+ * text note. Transactions come about every five minutes in the daytime, salary, rent, subscriptions and bills
+ * once a month on their day. Transactions are generated in time order starting at {@link #START}.
+ * <p>
+ * {@link #writeStore} writes a ledger straight into the files {@code InFilesTransactionService} reads, the indexes
+ * it can derive from them are built when the store is first opened.
+ */
+public class LedgerGenerator {
+
+    public static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+
+    // Mean time between two day to day transactions
+    private static final long MEAN_GAP_MILLIS = 5 * 60 * 1000;
+
+    // Nothing is bought between midnight and this hour (UTC)
+    private static final int FIRST_HOUR = 7;
+
+    private record Payee(String name, Category category, TransactionType type, double amount, double spread, int day) {
+
+        Payee(String name, Category category, TransactionType type, double amount, double spread) {
+            this(name, category, type, amount, spread, 0);
+        }
+    }
+
+    // Day to day payees, most frequent first
+    private static final Payee[] DAILY = {
+            new Payee("coffee", Category.FOOD, TransactionType.EXPENSE, 4.5, 0.3),
+            new Payee("groceries", Category.FOOD, TransactionType.EXPENSE, 45, 0.6),
+            new Payee("lunch", Category.FOOD, TransactionType.EXPENSE, 12, 0.3),
+            new Payee("taxi", Category.TRANSPORT, TransactionType.EXPENSE, 15, 0.5),
+            new Payee("bus ticket", Category.TRANSPORT, TransactionType.EXPENSE, 2.5, 0.1),
+            new Payee("supermarket", Category.FOOD, TransactionType.EXPENSE, 60, 0.6),
+            new Payee("pharmacy", Category.OTHER, TransactionType.EXPENSE, 18, 0.7),
+            new Payee("cinema", Category.ENTERTAINMENT, TransactionType.EXPENSE, 14, 0.2),
+            new Payee("restaurant", Category.FOOD, TransactionType.EXPENSE, 55, 0.5),
+            new Payee("bakery", Category.FOOD, TransactionType.EXPENSE, 6, 0.4),
+            new Payee("fuel", Category.TRANSPORT, TransactionType.EXPENSE, 55, 0.3),
+            new Payee("parking", Category.TRANSPORT, TransactionType.EXPENSE, 6, 0.5),
+            new Payee("book store", Category.ENTERTAINMENT, TransactionType.EXPENSE, 22, 0.5),
+            new Payee("uber ride home", Category.TRANSPORT, TransactionType.EXPENSE, 18, 0.4),
+            new Payee("uber eats", Category.FOOD, TransactionType.EXPENSE, 25, 0.4),
+            new Payee("dinner with friends", Category.FOOD, TransactionType.EXPENSE, 70, 0.5),
+            new Payee("birthday gift", Category.OTHER, TransactionType.EXPENSE, 45, 0.7),
+            new Payee("dentist", Category.OTHER, TransactionType.EXPENSE, 120, 0.6),
+            new Payee("haircut", Category.OTHER, TransactionType.EXPENSE, 30, 0.3),
+            new Payee("pet food", Category.OTHER, TransactionType.EXPENSE, 28, 0.3),
+            new Payee("laundry", Category.OTHER, TransactionType.EXPENSE, 9, 0.3),
+            new Payee("train ticket", Category.TRANSPORT, TransactionType.EXPENSE, 35, 0.6),
+            new Payee("flight tickets", Category.TRANSPORT, TransactionType.EXPENSE, 320, 0.5),
+            new Payee("hotel", Category.ENTERTAINMENT, TransactionType.EXPENSE, 180, 0.6),
+            new Payee("concert", Category.ENTERTAINMENT, TransactionType.EXPENSE, 85, 0.5),
+            new Payee("freelance payment", Category.SALARY, TransactionType.INCOME, 400, 0.8),
+            new Payee("refund", Category.OTHER, TransactionType.INCOME, 30, 0.9),
+            new Payee("dividends", Category.OTHER, TransactionType.INCOME, 60, 0.9),
+            new Payee("interest", Category.OTHER, TransactionType.INCOME, 5, 1.0),
+    };
+
+    // Once a month on the day, salary and rent amounts are picked per ledger
+    private static final Payee[] MONTHLY = {
+            new Payee("salary", Category.SALARY, TransactionType.INCOME, 0, 0.02, 1),
+            new Payee("rent", Category.RENT, TransactionType.EXPENSE, 0, 0, 3),
+            new Payee("netflix", Category.ENTERTAINMENT, TransactionType.EXPENSE, 15.99, 0, 8),
+            new Payee("spotify", Category.ENTERTAINMENT, TransactionType.EXPENSE, 10.99, 0, 12),
+            new Payee("gym membership", Category.ENTERTAINMENT, TransactionType.EXPENSE, 40, 0, 15),
+            new Payee("electricity bill", Category.OTHER, TransactionType.EXPENSE, 90, 0.3, 20),
+            new Payee("water bill", Category.OTHER, TransactionType.EXPENSE, 35, 0.2, 20),
+            new Payee("internet", Category.OTHER, TransactionType.EXPENSE, 45, 0, 22),
+            new Payee("mobile plan", Category.OTHER, TransactionType.EXPENSE, 25, 0, 25),
+            new Payee("insurance", Category.OTHER, TransactionType.EXPENSE, 110, 0, 28),
+    };
+
+    private final Random random;
+    private final double salary;
+    private final double rent;
+    private long dailyAt = START.toEpochMilli();
+    private LocalDate month = LocalDate.ofInstant(START, ZoneOffset.UTC).withDayOfMonth(1);
+    private final Deque<Transaction> recurring = new ArrayDeque<>();
+
+    public LedgerGenerator(long seed) {
+        this.random = new Random(seed);
+        this.salary = 2_000 + random.nextInt(6_000);
+        this.rent = Math.round(salary * (0.25 + random.nextDouble() * 0.15));
+        advanceDaily();
+    }
+
+    /**
+     * @return the next transaction, never earlier than the one before
+     */
+    public Transaction next() {
+
+        // Recurring payments of a month are queued once the day to day ones reach it
+        long monthStart = month.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        if (recurring.isEmpty() && dailyAt >= monthStart) queueMonth();
+
+        if (!recurring.isEmpty() && recurring.peek().getTransactionTime().toEpochMilli() <= dailyAt) return recurring.poll();
+
+        Transaction transaction;
+        if (random.nextInt(20) == 0) {
+            transaction = new Transaction(id(dailyAt), TransactionType.EXPENSE, Category.OTHER, amount(20, 1.0),
+                    "note " + Long.toString(random.nextLong() >>> 16, 36), Instant.ofEpochMilli(dailyAt));
+        } else {
+            Payee payee = DAILY[(int) (DAILY.length * Math.pow(random.nextDouble(), 3))];
+            transaction = new Transaction(id(dailyAt), payee.type(), payee.category(), amount(payee.amount(), payee.spread()),
+                    payee.name(), Instant.ofEpochMilli(dailyAt));
+        }
+        advanceDaily();
+        return transaction;
+    }
+
+    public List<Transaction> generate(int rows) {
+
+        List<Transaction> transactions = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) transactions.add(next());
+        return transactions;
+    }
+
+    /**
+     * Writes a generated ledger as the data files of the user, as if every transaction had been added at its time.
+     * The id index is written too; search, duplicate filter and checkpoints are built when the store is opened.
+     *
+     * @throws IOException if the user already has a ledger in the directory
+     */
+    public static void writeStore(Path dataDir, String username, long seed, int rows) throws IOException {
+
+        Path dataPath = dataDir.resolve(username + "_data.dat");
+        if (Files.exists(dataPath)) throw new IOException("Ledger already exists: " + dataPath);
+        Files.createDirectories(dataDir);
+
+        var generator = new LedgerGenerator(seed);
+        try (StringDictionary dictionary = StringDictionary.open(dataDir.resolve(username + "_data.dic"));
+             TransactionLog log = TransactionLog.open(dataPath, dictionary);
+             HashIndexFile index = HashIndexFile.open(dataDir.resolve(username + "_data.idx"))) {
+            List<LogRecord> records = new ArrayList<>(4096);
+            for (int written = 0; written < rows; written += records.size()) {
+                records.clear();
+                for (int i = 0; i < Math.min(4096, rows - written); i++) {
+                    Transaction transaction = generator.next();
+                    records.add(LogRecord.put(transaction, TransactionLog.NO_OFFSET, transaction.getTransactionTime().toEpochMilli()));
+                }
+                long[] offsets = log.appendAll(records);
+                for (int i = 0; i < records.size(); i++) index.put(records.get(i).id(), offsets[i]);
+            }
+            log.force();
+        }
+    }
+
+    private void queueMonth() {
+
+        List<Transaction> payments = new ArrayList<>(MONTHLY.length);
+        for (Payee payee : MONTHLY) {
+            double typical = payee.name().equals("salary") ? salary : payee.name().equals("rent") ? rent : payee.amount();
+            long at = month.withDayOfMonth(payee.day()).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli()
+                    + FIRST_HOUR * 3_600_000L + random.nextInt(3_600_000);
+            payments.add(new Transaction(id(at), payee.type(), payee.category(), amount(typical, payee.spread()), payee.name(), Instant.ofEpochMilli(at)));
+        }
+        payments.sort(Comparator.comparing(Transaction::getTransactionTime));
+        recurring.addAll(payments);
+        month = month.plusMonths(1);
+    }
+
+    private void advanceDaily() {
+
+        dailyAt += (long) (-Math.log(1 - random.nextDouble()) * MEAN_GAP_MILLIS);
+        long millisOfDay = Math.floorMod(dailyAt, 86_400_000L);
+        if (millisOfDay < FIRST_HOUR * 3_600_000L) dailyAt += FIRST_HOUR * 3_600_000L - millisOfDay + random.nextInt(600_000);
+    }
+
+    // Same layout as IdGenerator: 48 bits millis, version 7, 12 bit counter, variant, 62 random bits
+    private UUID id(long millis) {
+
+        long msb = (millis << 16) | (7L << 12) | random.nextInt(1 << 12);
+        long lsb = (random.nextLong() >>> 2) | Long.MIN_VALUE;
+        return new UUID(msb, lsb);
+    }
+
+    // Log-normal around the typical amount, in cents
+    private BigDecimal amount(double typical, double spread) {
+
+        double value = spread == 0 ? typical : typical * Math.exp(spread * random.nextGaussian());
+        return BigDecimal.valueOf(Math.max(1, Math.round(value * 100)), 2);
+    }
+}
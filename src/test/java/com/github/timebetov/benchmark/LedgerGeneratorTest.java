@@ -0,0 +1,40 @@
+package com.github.timebetov.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LedgerGeneratorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void sameSeedWritesIdenticalFiles() throws IOException {
+
+        LedgerGenerator.writeStore(dir.resolve("first"), "bench", 7, 5_000);
+        LedgerGenerator.writeStore(dir.resolve("second"), "bench", 7, 5_000);
+        LedgerGenerator.writeStore(dir.resolve("other"), "bench", 8, 5_000);
+
+        List<String> names = fileNames(dir.resolve("first"));
+        assertEquals(names, fileNames(dir.resolve("second")));
+        for (String name : names) {
+            assertEquals(-1L, Files.mismatch(dir.resolve("first").resolve(name), dir.resolve("second").resolve(name)), name);
+        }
+        assertNotEquals(-1L, Files.mismatch(dir.resolve("first/bench_data.dat"), dir.resolve("other/bench_data.dat")));
+    }
+
+    private static List<String> fileNames(Path store) throws IOException {
+
+        try (Stream<Path> files = Files.list(store)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.TransactionService;
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * End to end load test: a seeded mix of ADD, GET, UPDATE, DELETE and SUMMARY replayed against a
+ * {@link TransactionService}, new rows coming from a {@link LedgerGenerator} that continues the ledger.
+ * Reports throughput and latency percentiles per operation; pending writes are flushed before the clock stops,
+ * so the total of an async store includes them.
+ * <p>
+ * {@link #main} writes a ledger with {@link LedgerGenerator#writeStore} and runs the mix against
+ * {@code InFilesTransactionService} with synchronous and with asynchronous writes.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.LoadTest [rows] [operations]}
+ */
+public class LoadTest {
+
+    public enum Operation { ADD, GET, UPDATE, DELETE, SUMMARY }
+
+    /**
+     * Relative weight of each operation, indexed by {@link Operation#ordinal()}.
+     */
+    public record Mix(int... weights) {
+
+        // Mostly reads and new rows, the summary goes over the whole ledger so it is rare
+        public static final Mix DEFAULT = new Mix(4000, 4500, 1000, 499, 1);
+
+        Operation pick(Random random) {
+
+            int total = Arrays.stream(weights).sum();
+            int roll = random.nextInt(total);
+            for (Operation operation : Operation.values()) {
+                roll -= weights[operation.ordinal()];
+                if (roll < 0) return operation;
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    public record Report(String name, int operations, long nanos, long[][] latencies) {
+
+        public void print() {
+
+            System.out.printf("%s: %,d operations in %.2f s, %,.0f ops/s%n",
+                    name, operations, nanos / 1e9, operations * 1e9 / nanos);
+            System.out.printf("  %-8s %9s %9s %9s %9s %9s %9s%n", "us", "count", "p50", "p90", "p99", "p99.9", "max");
+            for (Operation operation : Operation.values()) {
+                long[] sorted = latencies[operation.ordinal()];
+                if (sorted.length == 0) continue;
+                System.out.printf("  %-8s %,9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", operation, sorted.length,
+                        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                        sorted[sorted.length - 1] / 1e3);
+            }
+        }
+
+        private static double percentile(long[] sorted, double percent) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percent / 100) - 1)] / 1e3;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        for (boolean asyncWrites : new boolean[] {false, true}) {
+            try (var scratch = ScratchDir.create("load-test")) {
+                Path dir = scratch.path();
+                long started = System.nanoTime();
+                LedgerGenerator.writeStore(dir, "bench", 39, rows);
+                System.out.printf("%,d rows written in %.2f s%n", rows, (System.nanoTime() - started) / 1e9);
+
+                // The ledger written above continues, so no added row duplicates an existing one
+                var generator = new LedgerGenerator(39);
+                for (int i = 0; i < rows; i++) generator.next();
+
+                try (var service = new InFilesTransactionService(dir, "bench", false, asyncWrites)) {
+                    run(asyncWrites ? "async writes" : "sync writes", service, generator, Mix.DEFAULT, operations, 39).print();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays the mix against the service, it is left open. GET, UPDATE and DELETE pick a random live transaction.
+     */
+    public static Report run(String name, TransactionService service, LedgerGenerator generator, Mix mix, int operations, long seed) {
+
+        var random = new Random(seed);
+        List<UUID> ids = new ArrayList<>(service.getTransactions(false).stream().map(Transaction::getId).toList());
+        long[][] latencies = new long[Operation.values().length][operations];
+        int[] counts = new int[latencies.length];
+
+        long started = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            Operation operation = ids.isEmpty() ? Operation.ADD : mix.pick(random);
+            long opStarted = System.nanoTime();
+            switch (operation) {
+                case ADD -> {
+                    Transaction transaction = generator.next();
+                    service.add(transaction);
+                    ids.add(transaction.getId());
+                }
+                case GET -> service.getById(pick(ids, random).toString());
+                case UPDATE -> service.update(pick(ids, random).toString(),
+                        new Transaction(null, null, BigDecimal.valueOf(1 + random.nextInt(100_000), 2), null, null));
+                case DELETE -> {
+                    int index = random.nextInt(ids.size());
+                    service.delete(ids.get(index).toString());
+                    ids.set(index, ids.get(ids.size() - 1));
+                    ids.remove(ids.size() - 1);
+                }
+                case SUMMARY -> service.getSummary(service.getTransactions(false));
+            }
+            latencies[operation.ordinal()][counts[operation.ordinal()]++] = System.nanoTime() - opStarted;
+        }
+        service.flush().join();
+        long nanos = System.nanoTime() - started;
+
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = Arrays.copyOf(latencies[i], counts[i]);
+            Arrays.sort(latencies[i]);
+        }
+        return new Report(name, operations, nanos, latencies);
+    }
+
+    private static UUID pick(List<UUID> ids, Random random) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.helper.AppConstant;
+import com.github.timebetov.helper.TableRenderer;
+import com.github.timebetov.models.Transaction;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows per second of the SHOW listing: the former per-row printf loop against {@link TableRenderer}.
+ * Output goes to /dev/null through a stream set up like {@code System.out}, so write syscalls are included.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.RenderBenchmark [rows] [rounds]}
+ */
+public class RenderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<Transaction> transactions = new LedgerGenerator(7).generate(rows);
+
+        // Both have to print exactly the same table
+        List<Transaction> sample = transactions.subList(0, Math.min(1_000, rows));
+        if (!Arrays.equals(capture(out -> printfTable(out, sample)), capture(out -> new TableRenderer(out).renderTransactions(sample))))
+            throw new IllegalStateException("TableRenderer output differs from the printf table");
+
+        try (PrintStream out = devNull()) {
+            TableRenderer renderer = new TableRenderer(out);
+            for (int round = 1; round <= rounds; round++) {
+                long printf = time(() -> printfTable(out, transactions));
+                long buffered = time(() -> renderer.renderTransactions(transactions));
+                System.out.printf("round %d: printf %,d rows/s | buffered %,d rows/s | x%.1f%n", round,
+                        rows * 1_000_000_000L / printf, rows * 1_000_000_000L / buffered, (double) printf / buffered);
+            }
+        }
+    }
+
+    // The listing as AppRunner printed it before TableRenderer
+    static void printfTable(PrintStream out, List<Transaction> transactions) {
+
+        final String displayFormat = "| %-5s " + AppConstant.DISPLAY_FORMAT;
+        out.println("‒".repeat(135));
+        out.printf((displayFormat) + "%n", "#", "ID", "TYPE", "AMOUNT", "CATEGORY", "DESCRIPTION", "DATE");
+        out.println("‒".repeat(135));
+        for (int i = 0; i < transactions.size(); i++) {
+            var transaction = transactions.get(i);
+            LocalDateTime transactionTime = LocalDateTime.ofInstant(transaction.getTransactionTime(), ZoneId.systemDefault());
+            out.printf((displayFormat) + "%n", i+1, transaction.getId(), transaction.getType(),
+                    transaction.getAmount(), transaction.getCategory(), transaction.getDescription(),
+                    transactionTime.format(AppConstant.TIME_FORMAT));
+        }
+        out.println("‒".repeat(135));
+    }
+
+    private static long time(Runnable task) {
+
+        long started = System.nanoTime();
+        task.run();
+        return System.nanoTime() - started;
+    }
+
+    private interface Printer {
+        void print(PrintStream out);
+    }
+
+    private static byte[] capture(Printer printer) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        printer.print(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static PrintStream devNull() throws IOException {
+
+        File devNull = new File("/dev/null");
+        OutputStream target = devNull.exists() ? new FileOutputStream(devNull) : OutputStream.nullOutputStream();
+        return new PrintStream(new BufferedOutputStream(target, 8192), true, StandardCharsets.UTF_8);
+    }
+}
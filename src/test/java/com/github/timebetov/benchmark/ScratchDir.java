@@ -0,0 +1,28 @@
+package com.github.timebetov.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Temporary directory for the files of a benchmark, deleted with everything in it on close.
+ */
+public record ScratchDir(Path path) implements AutoCloseable {
+
+    public static ScratchDir create(String prefix) throws IOException {
+        return new ScratchDir(Files.createTempDirectory(prefix));
+    }
+
+    @Override
+    public void close() {
+
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Latency of SEARCH on a generated ledger, first as written, then after a share of the transactions got new
+ * versions so their old postings are stale and have to be skipped. Every query is also timed after the store is
+ * reopened, with the index read from its snapshot.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes com.github.timebetov.benchmark.SearchBenchmark [rows] [updates]}
+ */
+public class SearchBenchmark {
+
+    private static final int ROUNDS = 50;
+    private static final List<String> QUERIES = List.of("coffee", "uber*", "ride home", "dinner friends", "b*");
+
+    public static void main(String[] args) throws IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        try (var scratch = ScratchDir.create("search-bench")) {
+            Path dir = scratch.path();
+            LedgerGenerator.writeStore(dir, "bench", 33, rows);
+            try (var service = new InFilesTransactionService(dir, "bench", false)) {
+                report("as written", service);
+
+                // New amounts keep the descriptions, the postings of the versions before turn stale
+                var random = new Random(33);
+                List<UUID> ids = service.getTransactions(false).stream().map(Transaction::getId).toList();
+                for (int i = 0; i < updates; i++) {
+                    service.update(ids.get(random.nextInt(ids.size())).toString(),
+                            new Transaction(null, null, BigDecimal.valueOf(1 + random.nextInt(100_000), 2), null, null));
+                }
+                report(String.format("after %,d updates", updates), service);
+            }
+            try (var service = new InFilesTransactionService(dir, "bench", false)) {
+                report("reopened", service);
+            }
+        }
+    }
+
+    private static void report(String name, InFilesTransactionService service) {
+
+        System.out.println(name + ":");
+        for (String query : QUERIES) {
+            int found = service.search(query).size();                  // warm up
+            long started = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) service.search(query);
+            System.out.printf("  %-16s %,8d found %10.1f us/query%n", query, found, (System.nanoTime() - started) / 1e3 / ROUNDS);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.timebetov.benchmark;
+
+import com.github.timebetov.App;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures time-to-first-prompt: a fresh JVM is started the same way a user starts the CLI and the clock
+ * stops when the command prompt is printed. The ledger is seeded beforehand so the numbers show whether
+ * startup still depends on its size.
+ * <p>
+ * Usage (after {@code mvn package}):
+ * <pre>
+ * java -cp target/classes:target/test-classes com.github.timebetov.benchmark.StartupBenchmark \
+ *      [rows] [runs] [target/moneywise.jar] [target/moneywise.jsa]
+ * </pre>
+ * Without a jar the app is started from the current classpath, an AppCDS archive only applies with the jar.
+ */
+public class StartupBenchmark {
+
+    // Median time-to-first-prompt we track against
+    static final long TARGET_MILLIS = 250;
+
+    private static final byte[] PROMPT = ">>> ".getBytes(StandardCharsets.US_ASCII);
+    private static final String USERNAME = "startup-bench";
+
+    public static void main(String[] args) throws Exception {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Path jar = args.length > 2 ? Path.of(args[2]).toAbsolutePath() : null;
+        Path archive = args.length > 3 ? Path.of(args[3]).toAbsolutePath() : null;
+
+        List<Long> timings = new ArrayList<>();
+        try (var scratch = ScratchDir.create("moneywise-startup")) {
+            Path workDir = scratch.path();
+            LedgerGenerator.writeStore(workDir.resolve("data"), USERNAME, 42, rows);
+
+            runOnce(workDir, jar, archive); // warms up the OS file cache
+            for (int i = 0; i < runs; i++) {
+                timings.add(runOnce(workDir, jar, archive));
+            }
+        }
+        Collections.sort(timings);
+
+        long median = timings.get(timings.size() / 2);
+        System.out.printf("rows=%d runs=%d archive=%s%n", rows, runs, archive != null ? archive : "-");
+        System.out.printf("time-to-first-prompt ms: min=%d median=%d max=%d%n",
+                timings.get(0), median, timings.get(timings.size() - 1));
+        System.out.printf("target median <= %d ms: %s%n", TARGET_MILLIS, median <= TARGET_MILLIS ? "MET" : "MISSED");
+    }
+
+    private static long runOnce(Path workDir, Path jar, Path archive) throws IOException, InterruptedException {
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (archive != null) command.add("-XX:SharedArchiveFile=" + archive);
+        if (jar != null) {
+            command.add("-jar");
+            command.add(jar.toString());
+        } else {
+            command.add("-cp");
+            command.add(absoluteClassPath());
+            command.add(App.class.getName());
+        }
+        command.add("-U");
+        command.add(USERNAME);
+
+        long started = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        awaitPrompt(process.getInputStream());
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write("EXIT\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        process.waitFor();
+        return elapsed;
+    }
+
+    // The child runs in the seeded work directory, so relative entries would not resolve
+    private static String absoluteClassPath() {
+
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(Path.of(entry).toAbsolutePath().toString());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static void awaitPrompt(InputStream stdout) throws IOException {
+
+        int matched = 0;
+        int b;
+        while ((b = stdout.read()) != -1) {
+            matched = b == PROMPT[matched] ? matched + 1 : (b == PROMPT[0] ? 1 : 0);
+            if (matched == PROMPT.length) return;
+        }
+        throw new IOException("Application exited before showing a prompt");
+    }
+}
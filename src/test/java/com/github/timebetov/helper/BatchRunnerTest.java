@@ -0,0 +1,125 @@
+package com.github.timebetov.helper;
+
+import com.github.timebetov.service.implementation.InFilesTransactionService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchRunnerTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    public void tokenizeKeepsQuotedTextTogether() {
+
+        assertEquals(List.of("ADD", "EXPENSE", "lunch \"big\" day", "a\\b", ""),
+                BatchRunner.tokenize("  ADD EXPENSE \"lunch \\\"big\\\" day\"   a\\b \"\""));
+        assertEquals(List.of("SEARCH", "uber", "taxi*"), BatchRunner.tokenize("SEARCH\tuber taxi*"));
+        assertThrows(IllegalArgumentException.class, () -> BatchRunner.tokenize("ADD \"lunch"));
+    }
+
+    @Test
+    public void answersEveryCommandInInputOrder() throws IOException {
+
+        try (var service = open()) {
+            String[] out = run(service, 3, """
+                    # comment
+
+                    ADD EXPENSE FOOD 12.50 "lunch at \\"Joe's\\"" 2026-10-01 12:00
+                    ADD INCOME SALARY 1000 salary 2026-10-01 09:00
+                    BALANCE
+                    FLY
+                    GET "not an id
+                    ADD EXPENSE FOOD 12.50 lunch
+                    """);
+
+            assertEquals(6, out.length);
+            assertTrue(out[0].matches("OK\t3\tADD\t[0-9a-f-]{36}"), out[0]);
+            assertTrue(out[1].matches("OK\t4\tADD\t[0-9a-f-]{36}"), out[1]);
+            assertEquals("OK\t5\tBALANCE\t987.50", out[2]);
+            assertEquals("ERROR\t6\tFLY\tUnknown command: FLY", out[3]);
+            assertEquals("ERROR\t7\t-\tUnclosed quote", out[4]);
+            assertEquals("ERROR\t8\tADD\tExpected: ADD <type> <category> <amount> <description> <time>", out[5]);
+
+            String id = out[0].split("\t")[3];
+            assertEquals("OK\t1\tGET\t" + id + "\tEXPENSE\tFOOD\t12.50\t2026-10-01 12:00:00\tlunch at \"Joe's\"",
+                    run(service, 0, "GET " + id)[0]);
+        }
+    }
+
+    @Test
+    public void updateKeepsFieldsGivenAsDash() throws IOException {
+
+        try (var service = open()) {
+            String id = run(service, 0, "ADD EXPENSE FOOD 12.50 lunch 2026-10-01 12:00")[0].split("\t")[3];
+
+            String[] out = run(service, 1, """
+                    UPDATE %1$s - - 13.00 - -
+                    GET %1$s
+                    DELETE %1$s
+                    DELETE %1$s
+                    """.formatted(id));
+
+            assertEquals("OK\t1\tUPDATE\t" + id, out[0]);
+            assertEquals("OK\t2\tGET\t" + id + "\tEXPENSE\tFOOD\t13.00\t2026-10-01 12:00:00\tlunch", out[1]);
+            assertEquals("OK\t3\tDELETE\t" + id, out[2]);
+            assertTrue(out[3].startsWith("ERROR\t4\tDELETE\t"), out[3]);
+        }
+    }
+
+    @Test
+    public void retriesAddGroupOneByOneAfterRejectedRow() throws IOException {
+
+        try (var service = open()) {
+            String[] out = run(service, 1, """
+                    ADD EXPENSE FOOD 4.50 coffee 2026-10-01 08:00
+                    ADD EXPENSE FOOD 4.50 coffee 2026-10-01 08:00
+                    ADD EXPENSE FOOD 9.00 lunch 2026-10-01 12:00
+                    SHOW
+                    """);
+
+            assertTrue(out[0].startsWith("OK\t1\tADD\t"), out[0]);
+            assertTrue(out[1].startsWith("ERROR\t2\tADD\t"), out[1]);
+            assertTrue(out[2].startsWith("OK\t3\tADD\t"), out[2]);
+            assertTrue(out[3].startsWith("ROW\t4\tSHOW\t") && out[3].endsWith("\tcoffee\t-4.50"), out[3]);
+            assertTrue(out[4].startsWith("ROW\t4\tSHOW\t") && out[4].endsWith("\tlunch\t-13.50"), out[4]);
+            assertEquals("OK\t4\tSHOW\t2", out[5]);
+        }
+    }
+
+    @Test
+    public void showsRunningBalancesInTimeOrder() throws IOException {
+
+        try (var service = open()) {
+            String[] out = run(service, 0, """
+                    ADD EXPENSE FOOD 9.00 lunch 2026-10-01 12:00
+                    ADD EXPENSE FOOD 4.50 coffee 2026-10-01 08:00
+                    SHOW
+                    """);
+
+            assertTrue(out[2].endsWith("\tcoffee\t-4.50"), out[2]);
+            assertTrue(out[3].endsWith("\tlunch\t-13.50"), out[3]);
+        }
+    }
+
+    private InFilesTransactionService open() {
+        return new InFilesTransactionService(dataDir, "tester", false);
+    }
+
+    // @param errors number of commands expected to fail, which makes the exit status
+    private static String[] run(InFilesTransactionService service, int errors, String input) throws IOException {
+
+        StringWriter out = new StringWriter();
+        assertEquals(errors, new BatchRunner(service, out).run(new BufferedReader(new StringReader(input))));
+        return out.toString().split("\n");
+    }
+}
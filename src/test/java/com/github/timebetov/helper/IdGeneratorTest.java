@@ -0,0 +1,33 @@
+package com.github.timebetov.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdGeneratorTest {
+
+    @Test
+    public void idsAreVersion7AndIncreasing() {
+
+        long before = System.currentTimeMillis();
+        UUID previous = IdGenerator.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            UUID id = IdGenerator.nextId();
+            assertEquals(7, id.version());
+            assertEquals(2, id.variant());
+            assertTrue(id.compareTo(previous) > 0, "ids go up within a thread");
+            previous = id;
+        }
+
+        // Counter overflow may borrow a few milliseconds ahead, never many
+        long stamp = IdGenerator.timestampOf(previous);
+        assertTrue(stamp >= before && stamp <= System.currentTimeMillis() + 100);
+    }
+
+    @Test
+    public void randomIdsHaveNoTimestamp() {
+        assertEquals(-1, IdGenerator.timestampOf(UUID.randomUUID()));
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.timebetov.helper;
+
+import com.github.timebetov.models.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TransactionFormatterTest {
+
+    @Test
+    public void rowMatchesDisplayFormat() {
+
+        ZoneId zone = ZoneId.of("Europe/Berlin");
+        TransactionFormatter formatter = new TransactionFormatter(zone);
+        String[] amounts = {"0", "0.05", "12.5", "999999.99", "12345678901234567.89", "1E+3", "7.125"};
+        String[] descriptions = {"", "coffee", "a description longer than twenty characters", null};
+
+        for (String amount : amounts) {
+            for (String description : descriptions) {
+                Transaction transaction = new Transaction(Transaction.TransactionType.EXPENSE, Transaction.Category.FOOD,
+                        new BigDecimal(amount), description, Instant.parse("2026-03-29T00:59:59Z"));
+                assertEquals(printf(transaction, zone), formatter.appendRow(new StringBuilder(), transaction).toString());
+            }
+        }
+    }
+
+    @Test
+    public void timeFollowsZoneOffsetChanges() {
+
+        ZoneId zone = ZoneId.of("America/New_York");
+        TransactionFormatter formatter = new TransactionFormatter(zone);
+
+        // Hour steps across two DST switches and the years where the pattern changes width
+        String[] starts = {"2026-03-07T00:00:00Z", "2026-10-31T00:00:00Z", "1969-12-30T00:00:00Z", "9999-12-30T00:00:00Z"};
+        for (String start : starts) {
+            Instant time = Instant.parse(start);
+            for (int hour = 0; hour < 72; hour++) {
+                Instant current = time.plusSeconds(hour * 3_600L + 61);
+                String expected = LocalDateTime.ofInstant(current, zone).format(AppConstant.TIME_FORMAT);
+                assertEquals(expected, formatter.appendTime(new StringBuilder(), current).toString());
+            }
+        }
+    }
+
+    private static String printf(Transaction transaction, ZoneId zone) {
+
+        return String.format(AppConstant.DISPLAY_FORMAT, transaction.getId(), transaction.getType(),
+                transaction.getAmount(), transaction.getCategory(), transaction.getDescription(),
+                LocalDateTime.ofInstant(transaction.getTransactionTime(), zone).format(AppConstant.TIME_FORMAT));
+    }
+}
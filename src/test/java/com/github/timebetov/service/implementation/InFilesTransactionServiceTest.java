@@ -0,0 +1,458 @@
+package com.github.timebetov.service.implementation;
+
+import com.github.timebetov.models.Budget;
+import com.github.timebetov.models.Transaction;
+import com.github.timebetov.storage.LogRecord;
+import com.github.timebetov.storage.TransactionLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InFilesTransactionServiceTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    public void keepsTransactionsAcrossRestarts() {
+
+        var service = open();
+        Transaction coffee = expense("coffee", "3.50");
+        Transaction rent = expense("rent", "900");
+        service.add(coffee);
+        service.add(rent);
+        service.update(coffee.getId().toString(), new Transaction(null, null, new BigDecimal("4"), null, null));
+        service.delete(rent.getId().toString());
+
+        var reopened = open();
+        assertEquals(new BigDecimal("4.00"), reopened.getById(coffee.getId().toString()).getAmount());
+        assertEquals(List.of(rent.getId()), reopened.getTransactions(true).stream().map(Transaction::getId).toList());
+    }
+
+    @Test
+    public void listsInTimeOrderBeforeAndAfterRestart() {
+
+        var service = open();
+        List<Transaction> added = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            added.add(new Transaction(Transaction.TransactionType.EXPENSE, Transaction.Category.FOOD, BigDecimal.ONE,
+                    "item " + i, Instant.parse("2026-10-01T12:00:00Z").plusSeconds((i * 7919L) % 50 / 5 * 60)));
+        }
+        service.addAll(added);
+        service.update(added.get(0).getId().toString(), new Transaction(null, null, null, "changed last", null));
+
+        // Time first, ties by id, whatever order the transactions were added or changed in
+        List<UUID> expected = added.stream().sorted().map(Transaction::getId).toList();
+        assertEquals(expected, service.getTransactions(false).stream().map(Transaction::getId).toList());
+        service.close();
+        assertEquals(expected, open().getTransactions(false).stream().map(Transaction::getId).toList());
+    }
+
+    @Test
+    public void undoAndRedoReplayChanges() {
+
+        var service = open();
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        service.update(coffee.getId().toString(), new Transaction(null, null, null, "espresso", null));
+        service.clear(true);
+        assertTrue(service.getTransactions(false).isEmpty());
+
+        assertTrue(service.undo());
+        assertEquals("espresso", service.getById(coffee.getId().toString()).getDescription());
+        assertTrue(service.undo());
+        assertEquals("coffee", service.getById(coffee.getId().toString()).getDescription());
+        assertTrue(service.redo());
+        assertEquals("espresso", service.getById(coffee.getId().toString()).getDescription());
+
+        // Undone state is what is stored
+        assertEquals("espresso", open().getById(coffee.getId().toString()).getDescription());
+
+        assertTrue(service.undo());
+        assertTrue(service.undo());
+        assertFalse(service.undo());
+        assertTrue(open().getTransactions(false).isEmpty());
+    }
+
+    @Test
+    public void showsLedgerAsOfPastTime() throws InterruptedException, IOException {
+
+        var service = open();
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        Instant afterAdd = tick();
+        service.update(coffee.getId().toString(), new Transaction(null, null, new BigDecimal("5"), null, null));
+        Instant afterUpdate = tick();
+        service.delete(coffee.getId().toString());
+        Instant afterDelete = tick();
+
+        // Enough changes to go past a few checkpoints
+        for (int i = 0; i < 3_000; i++) {
+            service.add(expense("filler " + i, "1"));
+        }
+
+        // Fewer than 16 snapshots are kept, each at most the size of the index
+        long checkpointSize = Files.size(dataDir.resolve("tester_data.ckp"));
+        assertTrue(checkpointSize > 0 && checkpointSize <= 15 * (20 + 3_001 * 24), "checkpoint file is " + checkpointSize + " bytes");
+
+        var reopened = open();
+        assertTrue(reopened.getTransactionsAsOf(Instant.EPOCH).isEmpty());
+        assertEquals(new BigDecimal("3.50"), reopened.getTransactionsAsOf(afterAdd).get(0).getAmount());
+        assertEquals(new BigDecimal("5.00"), reopened.getTransactionsAsOf(afterUpdate).get(0).getAmount());
+        assertTrue(reopened.getTransactionsAsOf(afterDelete).isEmpty());
+        List<Transaction> now = reopened.getTransactionsAsOf(Instant.now());
+        assertEquals(3_000, now.size());
+        assertEquals(now.stream().sorted().toList(), now);
+    }
+
+    @Test
+    public void migratesDataFilesFromBeforeTheLog() throws IOException {
+
+        // Old layout: records without ids, the index maps ids to record positions
+        UUID id = UUID.randomUUID();
+        try (OutputStream data = Files.newOutputStream(dataDir.resolve("tester_data.dat"));
+             DataOutputStream out = new DataOutputStream(data)) {
+            out.writeBoolean(false);
+            out.writeUTF("EXPENSE");
+            out.writeUTF("FOOD");
+            out.writeInt(2);
+            byte[] unscaled = BigDecimal.valueOf(1250).toBigInteger().toByteArray();
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+            out.writeUTF("legacy lunch");
+            out.writeLong(1_700_000_000_000L);
+        }
+        try (OutputStream idx = Files.newOutputStream(dataDir.resolve("tester_data.idx"));
+             DataOutputStream out = new DataOutputStream(idx)) {
+            out.writeInt(1);
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            out.writeLong(0);
+        }
+
+        Transaction migrated = open().getById(id.toString());
+        assertEquals("legacy lunch", migrated.getDescription());
+        assertEquals(new BigDecimal("12.50"), migrated.getAmount());
+        assertEquals("legacy lunch", open().getById(id.toString()).getDescription());
+    }
+
+    @Test
+    public void rebuildsLostIndexFromLog() throws IOException {
+
+        var service = open();
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        service.add(expense("tea", "2"));
+        service.delete(coffee.getId().toString());
+
+        Files.delete(dataDir.resolve("tester_data.idx"));
+        var reopened = open();
+        assertEquals(1, reopened.getTransactions(false).size());
+        assertEquals(1, reopened.getTransactions(true).size());
+    }
+
+    @Test
+    public void writesBehindAndDrainsOnClose() {
+
+        var service = new InFilesTransactionService(dataDir, "tester", false, true);
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        service.flush().join();
+        assertEquals("coffee", open().getById(coffee.getId().toString()).getDescription());
+
+        for (int i = 0; i < 500; i++) service.add(expense("filler " + i, "1"));
+        service.update(coffee.getId().toString(), new Transaction(null, null, null, "espresso", null));
+        assertEquals("espresso", service.getById(coffee.getId().toString()).getDescription());
+        service.close();
+
+        var reopened = open();
+        assertEquals(501, reopened.getTransactions(false).size());
+        assertEquals("espresso", reopened.getById(coffee.getId().toString()).getDescription());
+    }
+
+    @Test
+    public void searchesDescriptionsByWordsAndPrefixes() {
+
+        var service = open();
+        Transaction ride = expense("Uber ride home", "12");
+        Transaction eats = expense("uber eats", "20");
+        Transaction latte = expense("Café latte", "4");
+        service.addAll(List.of(ride, eats, latte));
+
+        assertEquals(List.of(ride, eats), service.search("UBER"));
+        assertEquals(List.of(ride), service.search("ub* home"));
+        assertEquals(List.of(latte), service.search("cafe"));
+        assertTrue(service.search("taxi").isEmpty());
+
+        service.update(ride.getId().toString(), new Transaction(null, null, null, "taxi home", null));
+        service.delete(eats.getId().toString());
+        assertTrue(service.search("uber").isEmpty());
+        assertEquals(List.of(ride), service.search("taxi"));
+
+        // Snapshot from close, then changes only in the log
+        service.close();
+        var reopened = open();
+        reopened.add(expense("uber again", "7"));
+        reopened.add(expense("uber once more", "7"));
+        assertEquals(2, reopened.search("uber").size());
+        var caughtUp = open();
+        assertEquals(2, caughtUp.search("uber").size());
+        assertEquals(List.of(ride), caughtUp.search("taxi"));
+    }
+
+    @Test
+    public void answersBalanceAtTimeAndNetFlow() {
+
+        var service = open();
+        Random random = new Random(34);
+        Instant start = Instant.parse("2026-01-01T00:00:00Z");
+        List<Transaction> added = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            var type = random.nextBoolean() ? Transaction.TransactionType.INCOME : Transaction.TransactionType.EXPENSE;
+            Transaction transaction = new Transaction(type, Transaction.Category.OTHER,
+                    BigDecimal.valueOf(random.nextInt(100_000), 2), "item " + i, start.plusSeconds(random.nextInt(1000) * 3600L));
+            service.add(transaction);
+            added.add(transaction);
+
+            // Changing amount and time of an earlier one, or deleting it
+            Transaction earlier = added.get(random.nextInt(added.size()));
+            if (i % 5 == 0 && !service.getTransactions(true).contains(earlier)) {
+                service.update(earlier.getId().toString(), new Transaction(null, null,
+                        BigDecimal.valueOf(random.nextInt(1000)), null, start.plusSeconds(random.nextInt(1000) * 3600L)));
+            } else if (i % 7 == 0 && !service.getTransactions(true).contains(earlier)) {
+                service.delete(earlier.getId().toString());
+            }
+        }
+
+        for (var reopened : List.of(service, open())) {
+            List<Transaction> ledger = reopened.getTransactions(false);
+            for (int hour = -1; hour <= 1000; hour += 37) {
+                Instant time = start.plusSeconds(hour * 3600L);
+                Instant later = time.plusSeconds(200 * 3600L);
+                assertEquals(reopened.getBalance(ledger.stream().filter(t -> !t.getTransactionTime().isAfter(time)).toList()).setScale(2),
+                        reopened.getBalanceAt(time));
+                assertEquals(reopened.getBalance(ledger.stream()
+                                .filter(t -> !t.getTransactionTime().isBefore(time) && !t.getTransactionTime().isAfter(later)).toList()).setScale(2),
+                        reopened.getNetFlow(time, later));
+            }
+
+            // Running balance of the latest transaction is the whole balance
+            Transaction last = ledger.stream().max(Comparator.comparing(Transaction::getTransactionTime)
+                    .thenComparing(Transaction::getId)).orElseThrow();
+            assertEquals(reopened.getBalance(ledger), reopened.getRunningBalances(List.of(last)).get(0));
+        }
+    }
+
+    @Test
+    public void sharesDescriptionsThroughDictionary() throws IOException {
+
+        // A log written before the dictionary keeps its inline descriptions
+        Transaction inline = expense("coffee", "3");
+        try (TransactionLog log = TransactionLog.open(dataDir.resolve("tester_data.dat"))) {
+            log.append(LogRecord.put(inline, TransactionLog.NO_OFFSET, System.currentTimeMillis()));
+        }
+
+        var service = open();
+        service.add(expense("coffee", "4"));
+        service.add(expense(new String("coffee".toCharArray()), "5"));
+        service.close();
+
+        List<Transaction> loaded = open().getTransactions(false);
+        assertEquals(3, loaded.size());
+        assertEquals("coffee", loaded.get(0).getDescription());
+        assertSame(loaded.get(1).getDescription(), loaded.get(2).getDescription());
+    }
+
+    @Test
+    public void archivesOldHistoryAndKeepsItReadable() throws Exception {
+
+        var service = open();
+        List<Transaction> added = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) added.add(expense("item " + i, String.valueOf(i % 90 + 1)));
+        service.addAll(added);
+        service.update(added.get(0).getId().toString(), new Transaction(null, null, new BigDecimal("7"), null, null));
+        Instant beforeDelete = tick();
+        service.delete(added.get(1).getId().toString());
+        Instant cutoff = tick();
+        service.add(expense("after cutoff", "1"));
+
+        Path dataPath = dataDir.resolve("tester_data.dat");
+        long logSize = Files.size(dataPath);
+        assertEquals(3002, service.archive(cutoff));
+        assertEquals(0, service.archive(cutoff));
+        assertTrue(Files.size(dataPath) < logSize / 100);
+        assertTrue(Files.size(dataDir.resolve("tester_data.arc")) < logSize / 3);
+
+        // Latest versions are copied for loading, the archive is not inflated when the ledger is opened
+        assertTrue(Files.size(TransactionLog.liveCopyPath(dataPath)) > 0);
+        service.close();
+
+        service = open();
+        assertEquals(3000, service.getTransactions(false).size());
+        assertEquals(new BigDecimal("7.00"), service.getById(added.get(0).getId().toString()).getAmount());
+        assertEquals(3000, service.getTransactionsAsOf(beforeDelete).size());
+        assertEquals(List.of(added.get(5)), service.search("item 5"));
+
+        // Archived transactions still change, their new versions go to the file
+        service.delete(added.get(2).getId().toString());
+        service.close();
+        assertEquals(2999, open().getTransactions(false).size());
+
+        // Archiving again carries over the copies that are still the latest versions
+        service = open();
+        service.archive(tick());
+        service.close();
+        service = open();
+        assertEquals(2999, service.getTransactions(false).size());
+        assertEquals(new BigDecimal("7.00"), service.getById(added.get(0).getId().toString()).getAmount());
+    }
+
+    @Test
+    public void backsUpNewBytesOnlyAndRestores() throws Exception {
+
+        Path backupDir = dataDir.resolve("backup");
+        var service = open();
+        List<Transaction> added = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) added.add(expense("item " + i, "1"));
+        service.addAll(added);
+        long full = service.backup(backupDir).join();
+        service.add(expense("coffee", "3"));
+        long incremental = service.backup(backupDir).join();
+        assertTrue(incremental > 0 && incremental < full / 100);
+
+        // Archiving rewrites the log file, its copy starts over
+        service.archive(tick());
+        Transaction tea = expense("tea", "2");
+        service.add(tea);
+        service.backup(backupDir).join();
+        service.clear(true);
+        service.close();
+
+        var cleared = open();
+        assertTrue(cleared.getTransactions(false).isEmpty());
+        cleared.setBudget(Transaction.Category.FOOD, new BigDecimal("5000"));
+        cleared.close();
+
+        InFilesTransactionService.restore(backupDir, dataDir, "tester");
+        service = open();
+        assertEquals(2002, service.getTransactions(false).size());
+        assertEquals(List.of(tea), service.search("tea"));
+        assertEquals(added.get(7), service.getById(added.get(7).getId().toString()));
+
+        // Limits stay, what was spent is counted from the restored log
+        assertEquals(new Budget(Transaction.Category.FOOD, YearMonth.of(2026, 10), new BigDecimal("5000.00"), new BigDecimal("2005.00")),
+                service.getBudget(Transaction.Category.FOOD, YearMonth.of(2026, 10)));
+    }
+
+    @Test
+    public void refusesTransactionsWithSameContent() {
+
+        var service = open();
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        assertThrows(IllegalArgumentException.class, () -> service.add(expense("coffee", "3.5")));
+        service.add(expense("coffee", "4"));
+
+        // Batches are refused whole, for a row already in the ledger or repeated in the batch
+        assertThrows(IllegalArgumentException.class, () -> service.addAll(List.of(expense("tea", "2"), expense("coffee", "3.50"))));
+        assertThrows(IllegalArgumentException.class, () -> service.addAll(List.of(expense("tea", "2"), expense("tea", "2"))));
+        assertEquals(2, service.getTransactions(false).size());
+
+        // Deleted ones are not duplicated, and the filter survives a restart
+        service.delete(coffee.getId().toString());
+        service.add(expense("coffee", "3.50"));
+        service.close();
+        assertThrows(IllegalArgumentException.class, () -> open().add(expense("coffee", "3.50")));
+    }
+
+    @Test
+    public void dropsRecordCutShortByCrash() throws IOException {
+
+        var service = open();
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        service.add(expense("lunch", "12.50"));
+        service.close();
+
+        // The last record loses its end as if the process died while writing it
+        try (FileChannel channel = FileChannel.open(dataDir.resolve("tester_data.dat"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 13);
+        }
+
+        service = open();
+        assertEquals(List.of(coffee), service.getTransactions(false));
+        Transaction tea = expense("tea", "2");
+        service.add(tea);
+        service.close();
+        assertEquals(List.of(coffee, tea), open().getTransactions(false));
+
+        // The record added after the cut is found by a rebuild from the log too
+        Files.delete(dataDir.resolve("tester_data.idx"));
+        assertEquals(List.of(coffee, tea), open().getTransactions(false));
+    }
+
+    @Test
+    public void countsBudgetsAlongChanges() {
+
+        var service = open();
+        var food = Transaction.Category.FOOD;
+        YearMonth october = YearMonth.of(2026, 10);
+        assertNull(service.getBudget(food, october));
+
+        service.setBudget(food, new BigDecimal("10"));
+        Transaction lunch = expense("lunch", "6");
+        Transaction coffee = expense("coffee", "3");
+        service.add(lunch);
+        service.add(coffee);
+        assertEquals(90, service.getBudget(food, october).percentUsed());
+
+        service.update(lunch.getId().toString(), new Transaction(null, null, new BigDecimal("8"), null, null));
+        assertTrue(service.getBudget(food, october).isExceeded());
+        service.update(lunch.getId().toString(), new Transaction(null, Transaction.Category.OTHER, null, null, null));
+        service.delete(coffee.getId().toString());
+        assertEquals(new BigDecimal("0.00"), service.getBudget(food, october).spent());
+        assertTrue(service.undo());
+        service.close();
+
+        // Saved with the ledger, and counted again when the log grew without them being saved
+        var reopened = open();
+        assertEquals(List.of(new Budget(food, october, new BigDecimal("10.00"), new BigDecimal("3.00"))), reopened.getBudgets(october));
+        reopened.add(expense("tea", "2"));
+        assertEquals(new BigDecimal("5.00"), open().getBudget(food, october).spent());
+    }
+
+    private InFilesTransactionService open() {
+        return new InFilesTransactionService(dataDir, "tester", false);
+    }
+
+    private static Instant tick() throws InterruptedException {
+
+        Thread.sleep(5);
+        Instant now = Instant.now();
+        Thread.sleep(5);
+        return now;
+    }
+
+    private static Transaction expense(String description, String amount) {
+        return new Transaction(Transaction.TransactionType.EXPENSE, Transaction.Category.FOOD,
+                new BigDecimal(amount).setScale(2, RoundingMode.HALF_UP), description, Instant.parse("2026-10-01T12:00:00Z"));
+    }
+}
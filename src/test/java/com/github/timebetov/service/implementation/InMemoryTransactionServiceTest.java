@@ -0,0 +1,88 @@
+package com.github.timebetov.service.implementation;
+
+import com.github.timebetov.models.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryTransactionServiceTest {
+
+    private final InMemoryTransactionService service = new InMemoryTransactionService("tester");
+
+    @Test
+    public void undoAndRedoReplayChanges() {
+
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        service.update(coffee.getId().toString(), new Transaction(null, null, null, "espresso", null));
+        service.clear(true);
+        assertTrue(service.getTransactions(false).isEmpty());
+
+        assertTrue(service.undo());
+        assertEquals("espresso", service.getById(coffee.getId().toString()).getDescription());
+        assertTrue(service.undo());
+        assertEquals("coffee", service.getById(coffee.getId().toString()).getDescription());
+        assertTrue(service.redo());
+        assertEquals("espresso", service.getById(coffee.getId().toString()).getDescription());
+
+        assertTrue(service.undo());
+        assertTrue(service.undo());
+        assertFalse(service.undo());
+        assertTrue(service.getTransactions(false).isEmpty());
+    }
+
+    @Test
+    public void showsLedgerAsOfPastTime() throws InterruptedException {
+
+        Transaction coffee = expense("coffee", "3.50");
+        service.add(coffee);
+        Instant afterAdd = tick();
+        service.update(coffee.getId().toString(), new Transaction(null, null, new BigDecimal("5"), null, null));
+        Instant afterUpdate = tick();
+        service.delete(coffee.getId().toString());
+
+        assertTrue(service.getTransactionsAsOf(Instant.EPOCH).isEmpty());
+        assertEquals(new BigDecimal("3.50"), service.getTransactionsAsOf(afterAdd).get(0).getAmount());
+        assertEquals(new BigDecimal("5.00"), service.getTransactionsAsOf(afterUpdate).get(0).getAmount());
+        assertTrue(service.getTransactionsAsOf(Instant.now()).isEmpty());
+    }
+
+    @Test
+    public void searchesAndCountsBudgetsLikeFiles() {
+
+        Transaction ride = expense("Uber ride home", "12");
+        Transaction eats = expense("uber eats", "20");
+        service.addAll(List.of(ride, eats));
+        assertEquals(List.of(ride), service.search("ub* home"));
+        assertThrows(IllegalArgumentException.class, () -> service.search("  "));
+
+        var food = Transaction.Category.FOOD;
+        YearMonth october = YearMonth.of(2026, 10);
+        service.setBudget(food, new BigDecimal("39.995"));
+        assertEquals(new BigDecimal("40.00"), service.getBudget(food, october).limit());
+        assertEquals(80, service.getBudget(food, october).percentUsed());
+        service.delete(eats.getId().toString());
+        assertEquals(new BigDecimal("12.00"), service.getBudget(food, october).spent());
+        service.setBudget(food, null);
+        assertTrue(service.getBudgets(october).isEmpty());
+    }
+
+    private static Instant tick() throws InterruptedException {
+
+        Thread.sleep(5);
+        Instant now = Instant.now();
+        Thread.sleep(5);
+        return now;
+    }
+
+    private static Transaction expense(String description, String amount) {
+        return new Transaction(Transaction.TransactionType.EXPENSE, Transaction.Category.FOOD,
+                new BigDecimal(amount).setScale(2, RoundingMode.HALF_UP), description, Instant.parse("2026-10-01T12:00:00Z"));
+    }
+}
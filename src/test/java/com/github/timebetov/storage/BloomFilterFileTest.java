@@ -0,0 +1,43 @@
+package com.github.timebetov.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void findsEveryAddedKeyAndFewOthers() throws IOException {
+
+        Path path = dir.resolve("test.blm");
+        int keys = 100_000;
+        try (BloomFilterFile filter = BloomFilterFile.create(path, keys)) {
+            var random = new Random(38);
+            for (int i = 0; i < keys; i++) filter.add(random.nextLong());
+            assertEquals(keys, filter.entries());
+        }
+
+        assertTrue(BloomFilterFile.isClean(path));
+        try (BloomFilterFile filter = BloomFilterFile.open(path)) {
+            var random = new Random(38);
+            for (int i = 0; i < keys; i++) assertTrue(filter.mightContain(random.nextLong()));
+
+            int falsePositives = 0;
+            for (int i = 0; i < keys; i++) {
+                if (filter.mightContain(random.nextLong())) falsePositives++;
+            }
+            assertTrue(falsePositives < keys / 50, falsePositives + " false positives");
+
+            filter.add(1);
+            assertFalse(BloomFilterFile.isClean(path));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.timebetov.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckpointFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void keepsSnapshotsSpacedBackFromTheLatest() throws IOException {
+
+        Path path = dir.resolve("test.ckp");
+        UUID id = UUID.randomUUID();
+        try (HashIndexFile index = HashIndexFile.open(dir.resolve("test.idx"))) {
+            CheckpointFile checkpoints = CheckpointFile.open(path);
+            for (int i = 0; i < 1_000; i++) {
+                index.put(id, 8 + i);
+                checkpoints.add(i * 100L, i, index);
+            }
+        }
+
+        CheckpointFile reopened = CheckpointFile.open(path);
+        assertEquals(99_900, reopened.lastLogOffset());
+        assertNull(reopened.latestAtOrBefore(-1));
+        assertEquals(0, reopened.latestAtOrBefore(0).logOffset());
+        assertEquals(8 + 999, (long) reopened.latestAtOrBefore(1_000).index().get(id));
+
+        // Replay from the snapshot found is at most a few times longer than the distance back from the latest one
+        for (long time = 0; time < 999; time++) {
+            CheckpointFile.Checkpoint found = reopened.latestAtOrBefore(time);
+            assertEquals(8 + found.recordedAt(), (long) found.index().get(id));
+            assertTrue(time - found.recordedAt() <= 4 * (999 - time), "ASOF " + time + " starts at " + found.recordedAt());
+        }
+    }
+}
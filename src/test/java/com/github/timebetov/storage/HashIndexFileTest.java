@@ -0,0 +1,77 @@
+package com.github.timebetov.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashIndexFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void growsAndKeepsEntriesAcrossReopen() throws IOException {
+
+        Path path = dir.resolve("test.idx");
+        Map<UUID, Long> expected = new HashMap<>();
+        List<UUID> removed = new ArrayList<>();
+
+        try (HashIndexFile index = HashIndexFile.open(path)) {
+            for (int i = 0; i < 50_000; i++) {
+                UUID id = UUID.randomUUID();
+                index.put(id, 8 + i);
+                expected.put(id, 8L + i);
+
+                // Updates and removals while resizes are in progress
+                if (i % 7 == 0) {
+                    index.put(id, 1_000_000 + i);
+                    expected.put(id, 1_000_000L + i);
+                }
+                if (i % 10 == 0) {
+                    index.removeAll(List.of(id));
+                    expected.remove(id);
+                    removed.add(id);
+                }
+            }
+            assertEntries(expected, removed, index);
+        }
+
+        assertTrue(HashIndexFile.isClean(path));
+        try (HashIndexFile index = HashIndexFile.open(path)) {
+            assertEntries(expected, removed, index);
+        }
+    }
+
+    @Test
+    public void indexLeftOpenIsNotClean() throws IOException {
+
+        Path path = dir.resolve("test.idx");
+        HashIndexFile.open(path).close();
+        assertTrue(HashIndexFile.isClean(path));
+
+        HashIndexFile index = HashIndexFile.open(path);
+        index.put(UUID.randomUUID(), 8);
+        assertFalse(HashIndexFile.isClean(path));
+        assertThrows(IOException.class, () -> HashIndexFile.open(path));
+    }
+
+    private static void assertEntries(Map<UUID, Long> expected, List<UUID> removed, HashIndexFile index) {
+
+        assertEquals(expected.size(), index.size());
+        expected.forEach((id, offset) -> assertEquals((long) offset, index.get(id)));
+        removed.forEach(id -> assertEquals(TransactionLog.NO_OFFSET, index.get(id)));
+
+        Map<UUID, Long> visited = new HashMap<>();
+        index.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}